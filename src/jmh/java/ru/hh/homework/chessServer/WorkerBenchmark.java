@@ -0,0 +1,68 @@
+package ru.hh.homework.chessServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.hh.homework.chessServer.game.Engine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//command dispatch of a worker without the network: requests of a played game that don't change it,
+//so that nothing piles up for the journal
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkerBenchmark {
+    private static final int WHITE = 1;
+    private static final int BLACK = 2;
+    private static final Pattern GAME_ID = Pattern.compile("GameId: (\\S+)");
+
+    private Worker worker;
+
+    @Setup
+    public void setUp() throws IOException {
+        final Path folder = Files.createTempDirectory("chessServer-bench");
+        final Journal.Recovery recovery = Journal.recover(folder);
+        final Dispatcher dispatcher = new Dispatcher(1);
+        final Server server = new Server(0, 1, dispatcher);
+        final Engine engine = new Engine(1, 10, Settings.ENGINE_THINK_TIME, Optional.empty(), Optional.empty());
+        this.worker = new Worker(server, dispatcher, engine, 0, recovery,
+                new Persister(server, new Journal(folder, recovery.sequence)));
+        final Matcher gameId = GAME_ID.matcher(this.worker.process(new Exchange(WHITE, "create")).get(0).body);
+        if (!gameId.find())
+            throw new IllegalStateException("No game was created");
+        this.worker.process(new Exchange(BLACK, "join " + gameId.group(1)));
+    }
+
+    @Benchmark
+    public List<Exchange> printState() {
+        return this.worker.process(new Exchange(WHITE, "print_state"));
+    }
+
+    @Benchmark
+    public List<Exchange> illegalMove() {
+        return this.worker.process(new Exchange(WHITE, "move e2 e5"));
+    }
+
+    @Benchmark
+    public List<Exchange> unknownCommand() {
+        return this.worker.process(new Exchange(WHITE, "castle"));
+    }
+}
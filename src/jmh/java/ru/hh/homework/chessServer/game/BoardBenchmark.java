@@ -0,0 +1,78 @@
+package ru.hh.homework.chessServer.game;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//move validation, generation and rendering on the start position and on a busy middlegame (kiwipete)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+    private static final int E2 = Bitboards.square(1, 4);
+    private static final int E4 = Bitboards.square(3, 4);
+    private static final int E5 = Bitboards.square(4, 4);
+
+    private Board start;
+    private Board middlegame;
+    private int middlegameMove;
+    private final int[] moves = new int[Board.MAX_MOVES];
+
+    @Setup
+    public void setUp() {
+        this.start = new Board();
+        this.middlegame = Board.tryParseFen(Perft.POSITIONS.get(1).fen).get();
+        this.middlegameMove = this.middlegame.legalMoves()[0];
+    }
+
+    @Benchmark
+    public MoveResult legalMove() {
+        final MoveResult result = this.start.move(true, E2, E4, null);
+        this.start.unmakeMove();
+        return result;
+    }
+
+    @Benchmark
+    public MoveResult illegalMove() {
+        return this.start.move(true, E2, E5, null);
+    }
+
+    @Benchmark
+    public int pseudoLegalMoves() {
+        return this.middlegame.generatePseudoLegalMoves(true, this.moves);
+    }
+
+    @Benchmark
+    public int legalMoves() {
+        return this.middlegame.generateLegalMoves(true, this.moves);
+    }
+
+    //after a move, as every player and watcher gets it; the position cache keeps the rendered board
+    @Benchmark
+    public String print() {
+        this.middlegame.makeMove(this.middlegameMove);
+        final String board = this.middlegame.print(false);
+        this.middlegame.unmakeMove();
+        return board;
+    }
+
+    @Benchmark
+    public String fen() {
+        this.middlegame.makeMove(this.middlegameMove);
+        final String fen = this.middlegame.fen();
+        this.middlegame.unmakeMove();
+        return fen;
+    }
+}
@@ -0,0 +1,64 @@
+package ru.hh.homework.chessServer.game;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+//snapshots of a 20 move game as the journal writes and the recovery reads them
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameCodecBenchmark {
+    private static final String[] MOVES = ("e2e4 e7e5 g1f3 b8c6 f1b5 a7a6 b5a4 g8f6 e1g1 f8e7 f1e1 b7b5 a4b3 d7d6 "
+            + "c2c3 e8g8 h2h3 c6b8 d2d4 b8d7 b1d2 c8b7 b3c2 f8e8 d2f1 e7f8 f1g3 g7g6 c1g5 h7h6 g5d2 f8g7 "
+            + "a2a4 c7c5 d4d5 c5c4 b2b4 h6h5").split(" ");
+
+    private Game game;
+    private ByteBuffer buffer;
+    private ByteBuffer encoded;
+
+    @Setup
+    public void setUp() {
+        this.game = new Game(UUID.randomUUID());
+        final Player white = new Player(this.game, UUID.randomUUID().toString(), true);
+        final Player black = new Player(this.game, UUID.randomUUID().toString(), false);
+        this.game.addPlayer(white);
+        this.game.addPlayer(black);
+        for (int i = 0; i < MOVES.length; ++i) {
+            final MoveResult result = this.game.move((i % 2 == 0 ? white : black).token,
+                    MOVES[i].substring(0, 2), MOVES[i].substring(2, 4), null);
+            if (result.status == Status.INCORRECT)
+                throw new IllegalStateException(MOVES[i] + ": " + result);
+        }
+        this.buffer = ByteBuffer.allocate(GameCodec.size(this.game));
+        GameCodec.encode(this.game, this.buffer);
+        this.buffer.flip();
+        this.encoded = this.buffer.asReadOnlyBuffer();
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        this.buffer.clear();
+        GameCodec.encode(this.game, this.buffer);
+        return this.buffer;
+    }
+
+    @Benchmark
+    public Game decode() {
+        return GameCodec.decode(this.encoded.duplicate());
+    }
+}
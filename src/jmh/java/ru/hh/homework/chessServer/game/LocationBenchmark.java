@@ -0,0 +1,42 @@
+package ru.hh.homework.chessServer.game;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationBenchmark {
+    private String square = "e4";
+    private String incorrect = "z9";
+    private String command = "move e2 e4";
+
+    @Benchmark
+    public Optional<Location> tryParse() {
+        return Location.tryParse(this.square);
+    }
+
+    @Benchmark
+    public Optional<Location> tryParseIncorrect() {
+        return Location.tryParse(this.incorrect);
+    }
+
+    //in place, as the worker parses a move command
+    @Benchmark
+    public int parseSquare() {
+        return Location.parseSquare(this.command, 5, 7) + Location.parseSquare(this.command, 8, 10);
+    }
+}
@@ -0,0 +1,55 @@
+package ru.hh.homework.chessServer.game;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+//kiwipete to depth 4, 4085603 nodes: divide the score by that for nodes per second
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PerftBenchmark {
+    private static final int DEPTH = 4;
+
+    @Param({"1", "2", "4"})
+    private int threads;
+
+    private ForkJoinPool pool;
+    private String fen;
+
+    @Setup
+    public void setUp() {
+        this.pool = new ForkJoinPool(this.threads);
+        this.fen = Perft.POSITIONS.get(1).fen;
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.pool.shutdown();
+    }
+
+    @Benchmark
+    public long parallel() {
+        return Perft.count(this.fen, DEPTH, this.pool);
+    }
+
+    @Benchmark
+    public long sequential() {
+        return Perft.leaves(Board.tryParseFen(this.fen).get(), DEPTH, new int[DEPTH + 1][Board.MAX_MOVES]);
+    }
+}
@@ -0,0 +1,122 @@
+package ru.hh.homework.chessServer;
+
+import ru.hh.homework.chessServer.game.Game;
+import ru.hh.homework.chessServer.game.GameCodec;
+import ru.hh.homework.chessServer.game.Location;
+import ru.hh.homework.chessServer.game.Piece;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.UUID;
+
+//binary protocol, a client selects it by sending MAGIC as its first byte.
+//frame: length of opcode and payload (2) | opcode (1) | payload, numbers are big-endian
+//client: CREATE [color (1), 1 for black] | JOIN game id (16) [token (16)] | MOVE move (2) | STATE | EXIT
+//| WATCH game id (16) | SEEK arguments of the text command (ascii)
+//server: MESSAGE text | GAME game id (16) token (16) state | STATE state text, state is GameCodec.encodeState
+//move: from | to << 6 | promotion << 12, squares are rank * 8 + file, promotion is 0 or piece ordinal + 1
+final class BinaryFrames {
+    public static final byte MAGIC = (byte) 0xC5;
+    public static final int HEADER_SIZE = 2;
+    public static final int MAX_FRAME_LENGTH = 0xFFFF;
+
+    public static final byte CREATE = 1;
+    public static final byte JOIN = 2;
+    public static final byte MOVE = 3;
+    public static final byte STATE = 4;
+    public static final byte EXIT = 5;
+    public static final byte WATCH = 6;
+    public static final byte SEEK = 7;
+
+    public static final byte MESSAGE = (byte) 0x80;
+    public static final byte GAME = (byte) 0x81;
+    public static final byte STATE_REPLY = (byte) 0x82;
+
+    private static final Piece[] PIECES = Piece.values();
+
+    private BinaryFrames() {
+    }
+
+    //the equivalent text command, so that workers serve both protocols the same way; empty if malformed
+    public static String decode(final byte[] frame, final int length) {
+        if (length == 0)
+            return "";
+        final ByteBuffer payload = ByteBuffer.wrap(frame, 1, length - 1);
+        switch (frame[0]) {
+            case CREATE:
+                return payload.remaining() > 0 && payload.get() == 1 ? "create true" : "create";
+            case JOIN:
+                if (payload.remaining() == 16)
+                    return "join " + readUUID(payload);
+                if (payload.remaining() == 32)
+                    return "join " + readUUID(payload) + " " + readUUID(payload);
+                return "join";
+            case MOVE:
+                if (payload.remaining() != 2)
+                    return "move";
+                final int move = payload.getChar();
+                final int promotion = (move >>> 12) & 7;
+                if (promotion > PIECES.length)
+                    return "move";
+                return "move " + Location.nameOf(move & 63) + " " + Location.nameOf((move >>> 6) & 63)
+                        + (promotion == 0 ? "" : " " + PIECES[promotion - 1].abbr);
+            case STATE:
+                return Settings.Command.PRINT_STATE.name();
+            case EXIT:
+                return Settings.Command.EXIT.name();
+            case WATCH:
+                return payload.remaining() == 16 ? "watch " + readUUID(payload) : "watch";
+            case SEEK:
+                return "seek " + new String(frame, 1, length - 1, StandardCharsets.US_ASCII);
+            default:
+                return "";
+        }
+    }
+
+    public static ByteBuffer message(final String text) {
+        final byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        final ByteBuffer frame = begin(MESSAGE, bytes.length);
+        frame.put(bytes, 0, Math.min(bytes.length, frame.remaining()));
+        return end(frame);
+    }
+
+    public static ByteBuffer game(final UUID gameId, final String token, final Game game, final boolean isWhite) {
+        final ByteBuffer frame = begin(GAME, 16 + 16 + GameCodec.STATE_SIZE);
+        writeUUID(gameId, frame);
+        writeUUID(Utils.tryParseUUID(token).get(), frame);
+        GameCodec.encodeState(game, isWhite, frame);
+        return end(frame);
+    }
+
+    public static ByteBuffer state(final String text, final Game game, final boolean isWhite) {
+        final byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        final ByteBuffer frame = begin(STATE_REPLY, GameCodec.STATE_SIZE + bytes.length);
+        GameCodec.encodeState(game, isWhite, frame);
+        frame.put(bytes, 0, Math.min(bytes.length, frame.remaining()));
+        return end(frame);
+    }
+
+    private static ByteBuffer begin(final byte opcode, final int payloadSize) {
+        final int length = Math.min(1 + payloadSize, MAX_FRAME_LENGTH);
+        final ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + length);
+        frame.putChar((char) length);
+        frame.put(opcode);
+        return frame;
+    }
+
+    //text that doesn't fit into MAX_FRAME_LENGTH is cut
+    private static ByteBuffer end(final ByteBuffer frame) {
+        frame.flip();
+        return frame;
+    }
+
+    private static UUID readUUID(final ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static void writeUUID(final UUID id, final ByteBuffer buffer) {
+        buffer.putLong(id.getMostSignificantBits());
+        buffer.putLong(id.getLeastSignificantBits());
+    }
+}
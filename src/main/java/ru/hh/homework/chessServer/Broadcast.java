@@ -0,0 +1,76 @@
+package ru.hh.homework.chessServer;
+
+import ru.hh.homework.chessServer.game.Display;
+import ru.hh.homework.chessServer.game.Game;
+
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+//an update for the watchers of a game: each encoding in use is made once on the worker, in its wire format,
+//and every watcher gets a duplicate of the same read-only buffer
+class Broadcast extends Exchange {
+    public static final int TEXT_BOARD = 0;
+    public static final int TEXT_FEN = 1;
+    public static final int BINARY = 2;
+    public static final int WEBSOCKET = 3;
+    public static final int WEBSOCKET_BINARY = 4;
+    public static final int VARIANTS = 5;
+
+    private final int[][] connections; //variant -> watchers, shared with Watchers and never modified
+    private final ByteBuffer[] frames; //variant -> update, null if nobody needs it
+
+    private Broadcast(final int[][] connections, final ByteBuffer[] frames) {
+        super(Connection.NONE, (String) null);
+        this.connections = connections;
+        this.frames = frames;
+    }
+
+    //watchers always get the whole position from the white side, so a dropped update is repaired by the next one
+    public static Broadcast of(final Server server, final int[][] connections, final String message,
+                               final Game game) {
+        checkNotNull(server);
+        final ByteBuffer[] frames = new ByteBuffer[VARIANTS];
+        for (int variant = 0; variant < VARIANTS; ++variant) {
+            if (connections[variant].length == 0)
+                continue;
+            final ByteBuffer frame;
+            switch (variant) {
+                case TEXT_BOARD:
+                case TEXT_FEN:
+                    frame = server.encode(Protocol.TEXT, null, message + game.printState(true,
+                            variant == TEXT_BOARD ? Display.BOARD : Display.FEN));
+                    break;
+                case WEBSOCKET:
+                    frame = server.encode(Protocol.WEBSOCKET, JsonFrames.state(message, game, true), null);
+                    break;
+                default:
+                    frame = server.encode(variant == BINARY ? Protocol.BINARY : Protocol.WEBSOCKET_BINARY,
+                            BinaryFrames.state(message, game, true), null);
+            }
+            frames[variant] = frame.asReadOnlyBuffer();
+        }
+        return new Broadcast(connections, frames);
+    }
+
+    public static int variantOf(final Protocol protocol, final Display display) {
+        switch (protocol) {
+            case BINARY:
+                return BINARY;
+            case WEBSOCKET:
+                return WEBSOCKET;
+            case WEBSOCKET_BINARY:
+                return WEBSOCKET_BINARY;
+            default:
+                return display == Display.BOARD ? TEXT_BOARD : TEXT_FEN;
+        }
+    }
+
+    public int[] connections(final int variant) {
+        return this.connections[variant];
+    }
+
+    public ByteBuffer frame(final int variant) {
+        return this.frames[variant];
+    }
+}
@@ -0,0 +1,235 @@
+package ru.hh.homework.chessServer;
+
+import ru.hh.homework.chessServer.game.Display;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+//reads and flushes happen on the selector thread only, enqueue is thread-safe
+class Connection {
+    private static final ByteBuffer CLOSE_MARKER = ByteBuffer.allocate(0);
+    private static final int INITIAL_LINE_SIZE = 128;
+
+    public static final int NONE = 0;
+
+    public final int id; //generation << SLOT_BITS | slot in the connection table, never NONE
+    public final String address;
+    public final SocketChannel channel;
+    public final Reactor reactor;
+
+    private final Queue<ByteBuffer> outbound;
+    private final AtomicInteger pendingBytes;
+    private final AtomicBoolean writeScheduled;
+    private volatile boolean closing;
+    private volatile Display display = Display.BOARD; //set by any worker, read when rendering
+    private volatile Protocol protocol; //null until the first byte arrives
+
+    private byte[] line;
+    private int lineLength;
+    private boolean skipLine;
+    private int frameLength = -1; //binary protocol: length of the current frame, -1 while its header is read
+    private WebSocket webSocket; //set when the first byte starts an HTTP request
+    private long lastRead; //selector thread only, for the keepalive
+    private TimingWheel.Timeout<Connection> timeout; //selector thread only
+
+    public Connection(final int id, final String address, final SocketChannel channel, final Reactor reactor) {
+        this.id = id;
+        this.address = checkNotNull(address);
+        this.channel = checkNotNull(channel);
+        this.reactor = checkNotNull(reactor);
+        this.outbound = new ConcurrentLinkedQueue<>();
+        this.pendingBytes = new AtomicInteger();
+        this.writeScheduled = new AtomicBoolean();
+        this.line = new byte[INITIAL_LINE_SIZE];
+        this.lastRead = System.currentTimeMillis();
+    }
+
+    public static int slot(final int id) {
+        return id & (Settings.MAX_CONNECTIONS - 1);
+    }
+
+    public Display getDisplay() {
+        return this.display;
+    }
+
+    public void setDisplay(final Display display) {
+        this.display = checkNotNull(display);
+    }
+
+    public Protocol getProtocol() {
+        return this.protocol;
+    }
+
+    //by the WebSocket once the upgrade is done
+    void setProtocol(final Protocol protocol) {
+        this.protocol = checkNotNull(protocol);
+    }
+
+    public long getLastRead() {
+        return this.lastRead;
+    }
+
+    public TimingWheel.Timeout<Connection> getTimeout() {
+        return this.timeout;
+    }
+
+    public void setTimeout(final TimingWheel.Timeout<Connection> timeout) {
+        this.timeout = timeout;
+    }
+
+    public boolean isWebSocket() {
+        return this.webSocket != null;
+    }
+
+    //an incomplete tail stays in the accumulator until the next read
+    public List<String> frame(final ByteBuffer input) {
+        this.lastRead = System.currentTimeMillis();
+        if (this.webSocket != null)
+            return this.webSocket.read(input);
+        if (this.protocol == null && input.hasRemaining()) {
+            final byte first = input.get(input.position());
+            if (first == BinaryFrames.MAGIC) {
+                input.get();
+                this.protocol = Protocol.BINARY;
+            } else if (first == 'G') {
+                //an HTTP GET: the protocol is chosen by the upgrade
+                this.webSocket = new WebSocket(this);
+                return this.webSocket.read(input);
+            } else {
+                this.protocol = Protocol.TEXT;
+            }
+        }
+        return this.protocol == Protocol.BINARY ? frameBinary(input) : frameText(input);
+    }
+
+    private List<String> frameText(final ByteBuffer input) {
+        List<String> lines = null;
+        while (input.hasRemaining()) {
+            final byte b = input.get();
+            if (b == '\n') {
+                int length = this.lineLength;
+                if (length > 0 && this.line[length - 1] == '\r')
+                    --length;
+                if (!this.skipLine && length > 0) {
+                    if (lines == null)
+                        lines = new ArrayList<>(1);
+                    lines.add(new String(this.line, 0, length, StandardCharsets.US_ASCII));
+                }
+                this.lineLength = 0;
+                this.skipLine = false;
+            } else if (!this.skipLine) {
+                if (this.lineLength == this.line.length) {
+                    if (this.line.length >= Settings.MAX_LINE_LENGTH) {
+                        //drop the rest of an oversized command
+                        this.skipLine = true;
+                        continue;
+                    }
+                    final byte[] grown = new byte[Math.min(this.line.length * 2, Settings.MAX_LINE_LENGTH)];
+                    System.arraycopy(this.line, 0, grown, 0, this.lineLength);
+                    this.line = grown;
+                }
+                this.line[this.lineLength++] = b;
+            }
+        }
+        return lines;
+    }
+
+    //the line accumulator holds the frame: the 2 byte length is read first, then the frame is collected
+    private List<String> frameBinary(final ByteBuffer input) {
+        List<String> lines = null;
+        while (input.hasRemaining()) {
+            if (this.frameLength < 0) {
+                this.line[this.lineLength++] = input.get();
+                if (this.lineLength == BinaryFrames.HEADER_SIZE) {
+                    this.frameLength = (this.line[0] & 0xFF) << 8 | (this.line[1] & 0xFF);
+                    this.skipLine = this.frameLength > Settings.MAX_LINE_LENGTH;
+                    this.lineLength = 0;
+                }
+            } else if (this.lineLength < this.frameLength) {
+                final int chunk = Math.min(input.remaining(), this.frameLength - this.lineLength);
+                if (this.skipLine) {
+                    //drop an oversized frame
+                    input.position(input.position() + chunk);
+                } else {
+                    if (this.line.length < this.frameLength)
+                        this.line = Arrays.copyOf(this.line, this.frameLength);
+                    input.get(this.line, this.lineLength, chunk);
+                }
+                this.lineLength += chunk;
+            }
+            if (this.frameLength >= 0 && this.lineLength == this.frameLength) {
+                if (!this.skipLine) {
+                    if (lines == null)
+                        lines = new ArrayList<>(1);
+                    lines.add(BinaryFrames.decode(this.line, this.frameLength));
+                }
+                this.frameLength = -1;
+                this.lineLength = 0;
+                this.skipLine = false;
+            }
+        }
+        return lines;
+    }
+
+    //false if the client doesn't read its output
+    public boolean enqueue(final ByteBuffer message) {
+        return offer(message, Settings.MAX_PENDING_BYTES);
+    }
+
+    //false if more than limit bytes would be waiting to be written, the message is not queued then
+    public boolean offer(final ByteBuffer message, final int limit) {
+        if (this.closing)
+            return true;
+        if (this.pendingBytes.addAndGet(message.remaining()) > limit) {
+            this.pendingBytes.addAndGet(-message.remaining());
+            return false;
+        }
+        this.outbound.add(message);
+        return true;
+    }
+
+    public void enqueueClose() {
+        if (!this.closing) {
+            this.closing = true;
+            this.outbound.add(CLOSE_MARKER);
+        }
+    }
+
+    public boolean scheduleWrite() {
+        return this.writeScheduled.compareAndSet(false, true);
+    }
+
+    public void resetWriteScheduled() {
+        this.writeScheduled.set(false);
+    }
+
+    //false if the close marker was reached and the channel has to be closed
+    public boolean flush() throws IOException {
+        ByteBuffer head;
+        while ((head = this.outbound.peek()) != null) {
+            if (head == CLOSE_MARKER)
+                return false;
+            final int written = this.channel.write(head);
+            this.pendingBytes.addAndGet(-written);
+            if (head.hasRemaining())
+                return true;
+            this.outbound.poll();
+        }
+        return true;
+    }
+
+    public boolean hasPendingOutput() {
+        return !this.outbound.isEmpty();
+    }
+}
@@ -0,0 +1,203 @@
+package ru.hh.homework.chessServer;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+//routes requests to worker shards: a game lives on the shard its id hashes to, a session or a watcher follows its game.
+//a join or a watch on another shard moves the route once that shard accepts it: until then the requests pipelined
+//after it are held, then they go where the connection ended up, in order. seeks go to the matchmaker
+class Dispatcher {
+    //commands after which a connection no longer waits for an opponent
+    private static final EnumSet<Settings.Command> LEAVING_SEEK = EnumSet.of(Settings.Command.CREATE,
+            Settings.Command.JOIN, Settings.Command.WATCH, Settings.Command.EXIT, Settings.Command.CLOSE);
+    private static final String SEEK_CANCEL = Settings.Command.SEEK.name() + " cancel";
+    //commands that start a session or a watch on the shard they are sent to
+    private static final EnumSet<Settings.Command> BINDING = EnumSet.of(Settings.Command.CREATE,
+            Settings.Command.JOIN, Settings.Command.WATCH);
+
+    private final List<BlockingQueue<Exchange>> queues;
+    private final BlockingQueue<Exchange> seeks;
+    //slot of a connection -> connection id << 32 | shard of its latest session, 0 when unbound
+    private final AtomicLongArray routes;
+    //slot of a connection -> its id while it is in the matchmaking pool, 0 otherwise
+    private final AtomicIntegerArray seeking;
+    //slot of a connection -> its join or watch that another shard has not accepted or refused yet
+    private final AtomicReferenceArray<Handoff> handoffs;
+
+    public Dispatcher(final int shards) {
+        checkArgument(shards > 0, "At least one worker is required");
+        this.queues = new ArrayList<>(shards);
+        for (int i = 0; i < shards; ++i) {
+            this.queues.add(new LinkedBlockingQueue<>());
+        }
+        this.seeks = new LinkedBlockingQueue<>();
+        this.routes = new AtomicLongArray(Settings.MAX_CONNECTIONS);
+        this.seeking = new AtomicIntegerArray(Settings.MAX_CONNECTIONS);
+        this.handoffs = new AtomicReferenceArray<>(Settings.MAX_CONNECTIONS);
+    }
+
+    public int shards() {
+        return this.queues.size();
+    }
+
+    public int shardOf(final UUID gameId) {
+        return shardOf(gameId.hashCode());
+    }
+
+    public void dispatch(final Exchange request) {
+        while (true) {
+            final Handoff handoff = this.handoffs.get(Connection.slot(request.connection));
+            if (handoff == null || handoff.connection != request.connection)
+                break;
+            synchronized (handoff) {
+                if (!handoff.isSettled) {
+                    handoff.held.add(request);
+                    return;
+                }
+            }
+        }
+        final String body = request.body;
+        final int commandStart = skipSpaces(body, 0);
+        final int commandEnd = skipToken(body, commandStart);
+        final Optional<Settings.Command> command = Settings.Command.tryParse(body, commandStart, commandEnd);
+        if (command.isPresent()) {
+            if (command.get() == Settings.Command.SEEK) {
+                this.seeks.add(request);
+                return;
+            }
+            if (LEAVING_SEEK.contains(command.get()) && isSeeking(request.connection))
+                this.seeks.add(new Exchange(request.connection, SEEK_CANCEL));
+        }
+        final int shard = route(request, command, commandEnd);
+        if (command.isPresent() && BINDING.contains(command.get())) {
+            final long route = this.routes.get(Connection.slot(request.connection));
+            final boolean isElsewhere = (int) (route >>> 32) == request.connection && (int) route != shard;
+            if (isElsewhere && command.get() != Settings.Command.CREATE)
+                this.handoffs.set(Connection.slot(request.connection), new Handoff(request.connection, shard));
+            else
+                bind(request.connection, shard);
+        }
+        this.queues.get(shard).add(request);
+    }
+
+    //called by the shard a join or a watch was sent to once it is done with it: if it was accepted the route moves
+    //there and the previous shard forgets the connection, otherwise the connection stays where it was
+    public void settle(final int connection, final int shard, final boolean isAccepted) {
+        final int slot = Connection.slot(connection);
+        final Handoff handoff = this.handoffs.get(slot);
+        if (handoff == null || handoff.connection != connection || handoff.shard != shard)
+            return;
+        synchronized (handoff) {
+            if (isAccepted)
+                bind(connection, shard);
+            this.handoffs.compareAndSet(slot, handoff, null);
+            handoff.isSettled = true;
+            //still under the lock, so that nothing the connection sends now overtakes them
+            handoff.held.forEach(this::dispatch);
+        }
+    }
+
+    //requests made by the server itself, bypassing the routes
+    public void dispatchTo(final int shard, final Exchange request) {
+        this.queues.get(shard).add(request);
+    }
+
+    public Exchange pollRequest(final int shard) {
+        return this.queues.get(shard).poll();
+    }
+
+    //null if nothing came within timeout milliseconds
+    public Exchange pollRequest(final int shard, final long timeout) throws InterruptedException {
+        return this.queues.get(shard).poll(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    public Exchange pollSeek() {
+        return this.seeks.poll();
+    }
+
+    //null if nothing came within timeout milliseconds
+    public Exchange pollSeek(final long timeout) throws InterruptedException {
+        return this.seeks.poll(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    public void markSeeking(final int connection) {
+        this.seeking.set(Connection.slot(connection), connection);
+    }
+
+    public void unmarkSeeking(final int connection) {
+        this.seeking.compareAndSet(Connection.slot(connection), connection, 0);
+    }
+
+    private boolean isSeeking(final int connection) {
+        return this.seeking.get(Connection.slot(connection)) == connection;
+    }
+
+    //the session of the connection is now served by shard; the previous shard has to forget it
+    public void bind(final int connection, final int shard) {
+        final long previous = this.routes.getAndSet(Connection.slot(connection), route(connection, shard));
+        if ((int) (previous >>> 32) == connection && (int) previous != shard)
+            this.queues.get((int) previous).add(new Exchange(connection, Settings.Command.CLOSE.name()));
+    }
+
+    //false once a later create, join, watch or pairing has moved the connection to another shard
+    public boolean isBound(final int connection, final int shard) {
+        return this.routes.get(Connection.slot(connection)) == route(connection, shard);
+    }
+
+    private int route(final Exchange request, final Optional<Settings.Command> command, final int commandEnd) {
+        final String body = request.body;
+        if (command.isPresent()
+                && (command.get() == Settings.Command.JOIN || command.get() == Settings.Command.WATCH)) {
+            final int idStart = skipSpaces(body, commandEnd);
+            final Optional<UUID> gameId = Utils.tryParseUUID(body, idStart, skipToken(body, idStart));
+            if (gameId.isPresent())
+                return shardOf(gameId.get());
+        }
+        final long route = this.routes.get(Connection.slot(request.connection));
+        return (int) (route >>> 32) == request.connection ? (int) route : shardOf(request.connection);
+    }
+
+    private static long route(final int connection, final int shard) {
+        return (long) connection << 32 | shard;
+    }
+
+    private int shardOf(final int hash) {
+        return Math.floorMod(hash ^ (hash >>> 16), this.queues.size());
+    }
+
+    private static int skipSpaces(final String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i)))
+            ++i;
+        return i;
+    }
+
+    private static int skipToken(final String s, int i) {
+        while (i < s.length() && !Character.isWhitespace(s.charAt(i)))
+            ++i;
+        return i;
+    }
+
+    private static final class Handoff {
+        final int connection;
+        final int shard; //the join or watch went there
+        final List<Exchange> held; //requests sent after it
+        boolean isSettled;
+
+        Handoff(final int connection, final int shard) {
+            this.connection = connection;
+            this.shard = shard;
+            this.held = new ArrayList<>();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package ru.hh.homework.chessServer;
+
+import ru.hh.homework.chessServer.game.Engine;
+
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+//a move the engine found, sent back to the shard of its game from an engine thread
+class EngineMove extends Exchange {
+    public final UUID gameId;
+    public final Engine.Reply reply; //null when the search failed
+
+    public EngineMove(final Engine.Reply reply) {
+        super(Connection.NONE, (String) null);
+        this.reply = checkNotNull(reply);
+        this.gameId = reply.gameId;
+    }
+
+    public EngineMove(final UUID gameId) {
+        super(Connection.NONE, (String) null);
+        this.gameId = checkNotNull(gameId);
+        this.reply = null;
+    }
+}
@@ -1,13 +1,24 @@
 package ru.hh.homework.chessServer;
 
-import static com.google.common.base.Preconditions.checkNotNull;
+import java.nio.ByteBuffer;
 
 public class Exchange {
-    public final String address;
+    public final int connection;
     public final String body;
+    public final ByteBuffer frame; //a ready binary frame instead of the body
+    public final long received; //a move is timed by when it was read, not by when a worker got to it
 
-    public Exchange(final String address, final String body) {
-        this.address = checkNotNull(address);
+    public Exchange(final int connection, final String body) {
+        this.connection = connection;
         this.body = body;
+        this.frame = null;
+        this.received = System.currentTimeMillis();
+    }
+
+    public Exchange(final int connection, final ByteBuffer frame) {
+        this.connection = connection;
+        this.body = null;
+        this.frame = frame;
+        this.received = System.currentTimeMillis();
     }
 }
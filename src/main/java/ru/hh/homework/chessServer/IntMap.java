@@ -0,0 +1,110 @@
+package ru.hh.homework.chessServer;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+//open addressing map from int keys to non-null values: no boxing, no entry objects.
+//linear probing, deletion shifts the following entries back instead of leaving tombstones
+class IntMap<V> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] keys;
+    private Object[] values; //null marks a free slot
+    private int size;
+
+    public IntMap() {
+        this.keys = new int[INITIAL_CAPACITY];
+        this.values = new Object[INITIAL_CAPACITY];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean containsKey(final int key) {
+        return get(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(final int key) {
+        final int mask = this.keys.length - 1;
+        for (int i = index(key, mask); this.values[i] != null; i = (i + 1) & mask) {
+            if (this.keys[i] == key)
+                return (V) this.values[i];
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(final int key, final V value) {
+        checkNotNull(value);
+        final int mask = this.keys.length - 1;
+        int i = index(key, mask);
+        for (; this.values[i] != null; i = (i + 1) & mask) {
+            if (this.keys[i] == key) {
+                final V previous = (V) this.values[i];
+                this.values[i] = value;
+                return previous;
+            }
+        }
+        this.keys[i] = key;
+        this.values[i] = value;
+        if (++this.size * 2 > this.keys.length)
+            grow();
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(final int key) {
+        final int mask = this.keys.length - 1;
+        int i = index(key, mask);
+        for (; this.values[i] != null; i = (i + 1) & mask) {
+            if (this.keys[i] == key)
+                break;
+        }
+        final V removed = (V) this.values[i];
+        if (removed == null)
+            return null;
+        //move back every following entry whose probe sequence passes the freed slot
+        for (int j = (i + 1) & mask; this.values[j] != null; j = (j + 1) & mask) {
+            final int home = index(this.keys[j], mask);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                this.keys[i] = this.keys[j];
+                this.values[i] = this.values[j];
+                i = j;
+            }
+        }
+        this.values[i] = null;
+        --this.size;
+        return removed;
+    }
+
+    public void clear() {
+        Arrays.fill(this.values, null);
+        this.size = 0;
+    }
+
+    private void grow() {
+        final int[] oldKeys = this.keys;
+        final Object[] oldValues = this.values;
+        this.keys = new int[oldKeys.length * 2];
+        this.values = new Object[oldValues.length * 2];
+        final int mask = this.keys.length - 1;
+        for (int j = 0; j < oldKeys.length; ++j) {
+            if (oldValues[j] == null)
+                continue;
+            int i = index(oldKeys[j], mask);
+            while (this.values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            this.keys[i] = oldKeys[j];
+            this.values[i] = oldValues[j];
+        }
+    }
+
+    private static int index(final int key, final int mask) {
+        final int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
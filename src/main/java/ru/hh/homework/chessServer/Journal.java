@@ -0,0 +1,379 @@
+package ru.hh.homework.chessServer;
+
+import ru.hh.homework.chessServer.game.Game;
+import ru.hh.homework.chessServer.game.GameCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+//append-only log of game changes, one writer (persister) per shard.
+//record: body length (4) | crc32 of body (4) | body: type (1) | game id (16) | payload
+//segments are numbered globally, replay applies them in order; a later snapshot of a game overrides earlier records
+class Journal {
+    private static final byte SNAPSHOT = 1;
+    private static final byte MOVE = 2;
+    private static final byte DISPOSE = 3;
+    private static final int RECORD_HEADER_SIZE = 4 + 4;
+    private static final int BODY_HEADER_SIZE = 1 + 16;
+
+    private final Path directory;
+    private final AtomicLong sequence;
+    private final List<Path> segments; //own segments, the last one is being written
+    private ByteBuffer buffer;
+    private FileChannel channel;
+    private long segmentSize;
+    private long checkpointSize;
+
+    public Journal(final Path directory, final AtomicLong sequence) {
+        this.directory = checkNotNull(directory);
+        this.sequence = checkNotNull(sequence);
+        this.segments = new ArrayList<>();
+        this.buffer = ByteBuffer.allocate(Settings.JOURNAL_BUFFER_SIZE);
+    }
+
+    //records are encoded by the worker that owns the game and written by the persister
+    public static Record snapshot(final Game game) {
+        final ByteBuffer record = beginRecord(SNAPSHOT, game.id, GameCodec.size(game));
+        GameCodec.encode(game, record);
+        return endRecord(SNAPSHOT, game.id, record);
+    }
+
+    public static Record move(final Game game) {
+        final ByteBuffer record = beginRecord(MOVE, game.id, GameCodec.MOVE_SIZE);
+        GameCodec.encodeLastMove(game, record);
+        return endRecord(MOVE, game.id, record);
+    }
+
+    public static Record dispose(final UUID gameId) {
+        return endRecord(DISPOSE, gameId, beginRecord(DISPOSE, gameId, 0));
+    }
+
+    public void append(final Record record) {
+        final ByteBuffer bytes = record.bytes.duplicate();
+        if (this.buffer.remaining() < bytes.remaining()) {
+            final ByteBuffer grown = ByteBuffer.allocate(Math.max(this.buffer.capacity() * 2,
+                    this.buffer.position() + bytes.remaining()));
+            this.buffer.flip();
+            grown.put(this.buffer);
+            this.buffer = grown;
+        }
+        this.buffer.put(bytes);
+    }
+
+    public boolean hasPending() {
+        return this.buffer.position() > 0;
+    }
+
+    //one write and one fsync for everything appended since the previous commit.
+    //writes go right after the last committed byte, so a retry overwrites the tail of a failed one
+    public void commit() throws IOException {
+        if (this.channel == null)
+            throw new IOException("Journal has no open segment");
+        this.buffer.flip();
+        long size = this.segmentSize;
+        while (this.buffer.hasRemaining()) {
+            size += this.channel.write(this.buffer, size);
+        }
+        this.channel.force(false);
+        this.buffer.clear();
+        this.segmentSize = size;
+    }
+
+    //forgets what was appended since the last successful commit and cuts off a partly written tail
+    public void rollback() throws IOException {
+        this.buffer.clear();
+        if (this.channel != null)
+            this.channel.truncate(this.segmentSize);
+    }
+
+    public boolean needsCompaction() {
+        return this.segmentSize > Math.max(Settings.JOURNAL_SEGMENT_SIZE, 2 * this.checkpointSize);
+    }
+
+    //starts a new segment with snapshots of the live games and drops the previous own segments
+    public void compact(final Collection<Record> snapshots) throws IOException {
+        if (this.channel != null && hasPending())
+            commit();
+        final FileChannel previous = this.channel;
+        final long previousSize = this.segmentSize;
+        final Path segment = this.directory.resolve(String.format("%020d%s",
+                this.sequence.getAndIncrement(), Settings.JOURNAL_FILE_EXTENSION));
+        this.channel = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.segmentSize = 0;
+        try {
+            for (final Record snapshot : snapshots) {
+                append(snapshot);
+            }
+            commit();
+        } catch (IOException e) {
+            //the previous segments stay the journal
+            this.buffer.clear();
+            this.channel.close();
+            this.channel = previous;
+            this.segmentSize = previousSize;
+            Files.deleteIfExists(segment);
+            throw e;
+        }
+        this.checkpointSize = this.segmentSize;
+
+        if (previous != null)
+            previous.close();
+        for (final Path old : this.segments) {
+            Files.deleteIfExists(old);
+        }
+        this.segments.clear();
+        this.segments.add(segment);
+    }
+
+    private static ByteBuffer beginRecord(final byte type, final UUID gameId, final int payloadSize) {
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + BODY_HEADER_SIZE + payloadSize);
+        record.position(RECORD_HEADER_SIZE);
+        record.put(type);
+        record.putLong(gameId.getMostSignificantBits());
+        record.putLong(gameId.getLeastSignificantBits());
+        return record;
+    }
+
+    private static Record endRecord(final byte type, final UUID gameId, final ByteBuffer record) {
+        final ByteBuffer body = record.duplicate();
+        body.flip();
+        body.position(RECORD_HEADER_SIZE);
+        final CRC32 crc = new CRC32();
+        crc.update(body);
+        record.putInt(0, record.position() - RECORD_HEADER_SIZE);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        return new Record(type, gameId, record);
+    }
+
+    //indexes the journal without decoding any game: files are read and checked in parallel,
+    //then their records are applied in segment order
+    public static Recovery recover(final Path directory) throws IOException {
+        final long start = System.nanoTime();
+        Files.createDirectories(directory);
+        final List<Path> segments = new ArrayList<>();
+        final List<Path> legacy = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                if (name.endsWith(Settings.JOURNAL_FILE_EXTENSION))
+                    segments.add(file);
+                else if (name.endsWith(Settings.GAME_FILE_EXTENSION))
+                    legacy.add(file);
+            }
+        }
+        segments.sort(null);
+
+        final Map<UUID, Recovered> games = new HashMap<>();
+        for (final Record snapshot : legacy.parallelStream().map(Journal::readGameFile).collect(Collectors.toList())) {
+            if (snapshot != null)
+                games.put(snapshot.gameId, new Recovered(snapshot));
+        }
+        final List<List<Record>> replayed = segments.parallelStream().map(Journal::replay).collect(Collectors.toList());
+        long sequence = 0;
+        for (int i = 0; i < segments.size(); ++i) {
+            for (final Record record : replayed.get(i)) {
+                apply(record, games);
+            }
+            final String name = segments.get(i).getFileName().toString();
+            sequence = Math.max(sequence, Long.parseLong(
+                    name.substring(0, name.length() - Settings.JOURNAL_FILE_EXTENSION.length())) + 1);
+        }
+        final List<Path> obsolete = new ArrayList<>(legacy);
+        obsolete.addAll(segments);
+        return new Recovery(games, new AtomicLong(sequence), obsolete, start);
+    }
+
+    //a torn or corrupted record ends the segment
+    private static List<Record> replay(final Path segment) {
+        final List<Record> records = new ArrayList<>();
+        final ByteBuffer data;
+        try {
+            data = Utils.read(segment);
+        } catch (IOException e) {
+            System.err.printf("Journal %s is skipped\n", segment);
+            e.printStackTrace();
+            return records;
+        }
+        final CRC32 crc = new CRC32();
+        while (data.remaining() >= RECORD_HEADER_SIZE) {
+            final int start = data.position();
+            final int length = data.getInt();
+            final int checksum = data.getInt();
+            if (length < BODY_HEADER_SIZE || length > data.remaining()) {
+                System.err.printf("Journal %s is truncated at %d\n", segment, start);
+                break;
+            }
+            final ByteBuffer body = data.slice();
+            body.limit(length);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                System.err.printf("Journal %s is corrupted at %d\n", segment, start);
+                break;
+            }
+            final ByteBuffer record = data.duplicate();
+            record.position(start).limit(start + RECORD_HEADER_SIZE + length);
+            data.position(start + RECORD_HEADER_SIZE + length);
+            records.add(new Record(body.get(), new UUID(body.getLong(), body.getLong()), record.slice()));
+        }
+        return records;
+    }
+
+    private static void apply(final Record record, final Map<UUID, Recovered> games) {
+        switch (record.type) {
+            case SNAPSHOT:
+                games.put(record.gameId, new Recovered(record));
+                break;
+            case MOVE:
+                final Recovered game = games.get(record.gameId);
+                if (game != null)
+                    game.records.add(record);
+                break;
+            case DISPOSE:
+                games.remove(record.gameId);
+                break;
+            default:
+                System.err.printf("Unknown journal record %d\n", record.type);
+        }
+    }
+
+    //a game file of the previous format becomes a snapshot record, the game id is taken without decoding
+    private static Record readGameFile(final Path file) {
+        try {
+            final ByteBuffer payload = Utils.read(file);
+            if (payload.remaining() > 1 + 16 && GameCodec.isSupported(payload.get(0))) {
+                final UUID gameId = new UUID(payload.getLong(1), payload.getLong(1 + 8));
+                final ByteBuffer record = beginRecord(SNAPSHOT, gameId, payload.remaining());
+                record.put(payload);
+                return endRecord(SNAPSHOT, gameId, record);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.err.printf("Game file %s is skipped\n", file);
+        return null;
+    }
+
+    public static class Record {
+        public final UUID gameId;
+        private final byte type;
+        private final ByteBuffer bytes;
+
+        private Record(final byte type, final UUID gameId, final ByteBuffer bytes) {
+            this.type = type;
+            this.gameId = gameId;
+            this.bytes = bytes;
+        }
+
+        //a snapshot or a disposal makes the previous records of the game useless
+        public boolean supersedes() {
+            return this.type != MOVE;
+        }
+    }
+
+    //a game restored from the journal that is decoded on first use or by the background loader
+    public static class Recovered {
+        public final UUID gameId;
+        private final List<Record> records; //snapshot followed by moves
+        private Game game;
+        private boolean failed;
+
+        //also used by a worker to keep an evicted game in its encoded form
+        Recovered(final Record snapshot) {
+            this.gameId = snapshot.gameId;
+            this.records = new ArrayList<>();
+            this.records.add(snapshot);
+        }
+
+        //the records still describe the game until it is taken by its worker
+        public List<Record> records() {
+            return this.records;
+        }
+
+        //null if the snapshot could not be decoded
+        public synchronized Game load() {
+            if (this.game == null && !this.failed) {
+                try {
+                    final ByteBuffer snapshot = payload(this.records.get(0));
+                    final Game game = GameCodec.decode(snapshot);
+                    for (int i = 1; i < this.records.size(); ++i) {
+                        GameCodec.replayMove(game, payload(this.records.get(i)));
+                    }
+                    this.game = game;
+                } catch (Exception e) {
+                    System.err.printf("Game %s is skipped\n", this.gameId);
+                    e.printStackTrace();
+                    this.failed = true;
+                }
+            }
+            return this.game;
+        }
+
+        public synchronized boolean isFailed() {
+            return this.failed;
+        }
+
+        private static ByteBuffer payload(final Record record) {
+            final ByteBuffer payload = record.bytes.duplicate();
+            payload.position(payload.position() + RECORD_HEADER_SIZE + BODY_HEADER_SIZE);
+            return payload;
+        }
+    }
+
+    public static class Recovery {
+        public final Map<UUID, Recovered> games;
+        public final AtomicLong sequence;
+        private final List<Path> obsolete;
+        private final long start;
+
+        private Recovery(final Map<UUID, Recovered> games, final AtomicLong sequence, final List<Path> obsolete,
+                         final long start) {
+            this.games = games;
+            this.sequence = sequence;
+            this.obsolete = obsolete;
+            this.start = start;
+        }
+
+        public long elapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.start);
+        }
+
+        //call once every shard has written its own checkpoint of the recovered games
+        public void removeObsoleteFiles() {
+            for (final Path file : this.obsolete) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        //decodes the games in parallel while the server is already accepting connections
+        public void loadAll() {
+            final long restored = this.games.values().parallelStream()
+                    .filter(game -> game.load() != null)
+                    .count();
+            System.out.printf("Restored %d of %d unfinished games in %d ms\n",
+                    restored, this.games.size(), elapsedMillis());
+        }
+    }
+}
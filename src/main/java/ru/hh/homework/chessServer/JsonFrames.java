@@ -0,0 +1,91 @@
+package ru.hh.homework.chessServer;
+
+import ru.hh.homework.chessServer.game.Game;
+import ru.hh.homework.chessServer.game.TimeControl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+//compact JSON replies for WebSocket text clients:
+//{"type":"message","text":...} | {"type":"game","gameId":...,"token":...,"state":state}
+//| {"type":"state","text":...,"state":state}, state: {"status","turn","color","lastMove","fen"[,"clock"]},
+//clock: {"control":"5+3","white":milliseconds left,"black":milliseconds left}
+final class JsonFrames {
+    private JsonFrames() {
+    }
+
+    public static ByteBuffer message(final String text) {
+        final StringBuilder json = new StringBuilder(text.length() + 32);
+        json.append("{\"type\":\"message\",\"text\":");
+        appendString(json, text);
+        return encode(json.append('}'));
+    }
+
+    public static ByteBuffer game(final Game game, final String token, final boolean isWhite) {
+        final StringBuilder json = new StringBuilder(256);
+        json.append("{\"type\":\"game\",\"gameId\":\"").append(game.id)
+                .append("\",\"token\":\"").append(token).append("\",\"state\":");
+        appendState(json, game, isWhite);
+        return encode(json.append('}'));
+    }
+
+    public static ByteBuffer state(final String text, final Game game, final boolean isWhite) {
+        final StringBuilder json = new StringBuilder(text.length() + 192);
+        json.append("{\"type\":\"state\",\"text\":");
+        appendString(json, text);
+        json.append(",\"state\":");
+        appendState(json, game, isWhite);
+        return encode(json.append('}'));
+    }
+
+    private static void appendState(final StringBuilder json, final Game game, final boolean isWhite) {
+        final String lastMove = game.lastMove();
+        json.append("{\"status\":\"").append(game.getStatus())
+                .append("\",\"turn\":\"").append(game.isWhiteToMove() ? "white" : "black")
+                .append("\",\"color\":\"").append(isWhite ? "white" : "black")
+                .append("\",\"lastMove\":").append(lastMove == null ? "null" : '"' + lastMove + '"')
+                .append(",\"fen\":\"").append(game.fen()).append('"');
+        final TimeControl timeControl = game.getTimeControl();
+        if (timeControl != null) {
+            final long now = System.currentTimeMillis();
+            json.append(",\"clock\":{\"control\":\"").append(timeControl)
+                    .append("\",\"white\":").append(game.remainingTime(true, now))
+                    .append(",\"black\":").append(game.remainingTime(false, now)).append('}');
+        }
+        json.append('}');
+    }
+
+    private static void appendString(final StringBuilder json, final String s) {
+        json.append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        json.append(String.format("\\u%04x", (int) c));
+                    else
+                        json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private static ByteBuffer encode(final CharSequence json) {
+        return ByteBuffer.wrap(json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
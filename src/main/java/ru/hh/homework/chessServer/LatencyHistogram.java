@@ -0,0 +1,98 @@
+package ru.hh.homework.chessServer;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+//log-linear histogram in the manner of HdrHistogram: values below SUB_BUCKETS are counted exactly, above that
+//each power of two is split into SUB_BUCKETS / 2 equal parts, so a percentile is off by less than 1/64.
+//values are microseconds, larger ones than the highest are counted as the highest; owned by one thread
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+
+    private final long highest;
+    private final long[] counts;
+    private long count;
+    private long sum;
+    private long max;
+
+    LatencyHistogram(final long highest) {
+        checkArgument(highest >= SUB_BUCKETS, "Incorrect highest value");
+        this.highest = highest;
+        this.counts = new long[index(highest) + 1];
+    }
+
+    void record(final long value) {
+        final long clamped = Math.max(0, Math.min(value, this.highest));
+        ++this.counts[index(clamped)];
+        ++this.count;
+        this.sum += clamped;
+        this.max = Math.max(this.max, clamped);
+    }
+
+    void add(final LatencyHistogram other) {
+        checkArgument(other.highest == this.highest, "Histograms differ in range");
+        for (int i = 0; i < this.counts.length; ++i) {
+            this.counts[i] += other.counts[i];
+        }
+        this.count += other.count;
+        this.sum += other.sum;
+        this.max = Math.max(this.max, other.max);
+    }
+
+    void reset() {
+        Arrays.fill(this.counts, 0);
+        this.count = 0;
+        this.sum = 0;
+        this.max = 0;
+    }
+
+    long count() {
+        return this.count;
+    }
+
+    long max() {
+        return this.max;
+    }
+
+    //the highest value equivalent to the one at the percentile (0..100], 0 if nothing was recorded
+    long percentile(final double percentile) {
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.count));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length; ++i) {
+            seen += this.counts[i];
+            if (seen >= rank)
+                return Math.min(highestEquivalent(i), this.max);
+        }
+        return 0;
+    }
+
+    //p50 1.20 ms, p99 4.10 ms, p99.9 9.80 ms, max 12.00 ms
+    String summary() {
+        return String.format("p50 %s, p99 %s, p99.9 %s, max %s", millis(percentile(50)), millis(percentile(99)),
+                millis(percentile(99.9)), millis(this.max));
+    }
+
+    private static String millis(final long micros) {
+        return String.format("%.2f ms", micros / 1000.0);
+    }
+
+    private static int index(final long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = magnitude - SUB_BUCKET_BITS + 1;
+        return SUB_BUCKETS + (magnitude - SUB_BUCKET_BITS) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    private static long highestEquivalent(final int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        final int magnitude = (index - SUB_BUCKETS) / HALF + SUB_BUCKET_BITS;
+        final long subBucket = (index - SUB_BUCKETS) % HALF + HALF;
+        final int shift = magnitude - SUB_BUCKET_BITS + 1;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,405 @@
+package ru.hh.homework.chessServer;
+
+import ru.hh.homework.chessServer.game.Location;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+//load test client: each game is a pair of connections playing a scripted line over the binary protocol in
+//connect, create, join, moves, exit cycles, all on one selector thread. a move is made after a log-normal think
+//time, its round trip is from writing the move to reading the reply to its player. throughput and round trips
+//of each report interval are printed if asked, then the totals
+final class LoadGenerator {
+    private static final String[][] LINES = {
+            ("e2e4 e7e5 g1f3 b8c6 f1b5 a7a6 b5a4 g8f6 e1g1 f8e7 f1e1 b7b5 a4b3 d7d6 c2c3 e8g8 h2h3 c6b8 d2d4 "
+                    + "b8d7 b1d2 c8b7 b3c2 f8e8 d2f1 e7f8 f1g3 g7g6 c1g5 h7h6 g5d2 f8g7 a2a4 c7c5 d4d5 c5c4 b2b4 "
+                    + "h6h5").split(" "),
+            ("d2d4 d7d5 c2c4 e7e6 b1c3 g8f6 c1g5 f8e7 e2e3 e8g8 g1f3 b8d7 a1c1 c7c6 f1d3 d5c4 d3c4 f6d5 g5e7 "
+                    + "d8e7 e1g1 d5c3 c1c3 e6e5").split(" "),
+            ("e2e4 c7c5 g1f3 d7d6 d2d4 c5d4 f3d4 g8f6 b1c3 a7a6 c1e3 e7e5 d4b3 c8e6 f2f3 f8e7 d1d2 e8g8 e1c1 "
+                    + "b8d7 g2g4 b7b5 g4g5 b5b4").split(" ")};
+    private static final double THINK_SIGMA = 0.75; //of the think time logarithm
+    private static final int MAX_THINK_FACTOR = 10; //of the median think time
+    private static final int READ_BUFFER_SIZE = 4096;
+    private static final int WRITE_BUFFER_SIZE = 256;
+    private static final long HIGHEST_LATENCY = TimeUnit.SECONDS.toMicros(60);
+
+    private final InetSocketAddress address;
+    private final int gameCount;
+    private final long duration; //milliseconds
+    private final long thinkTime; //median, milliseconds
+    private final boolean printsIntervals;
+    private final Selector selector;
+    private final TimingWheel<Runnable> timers;
+    private final Random random;
+    private final List<LoadGame> games;
+    private final LatencyHistogram interval;
+    private final LatencyHistogram total;
+    private long intervalMoves;
+    private long moves;
+    private long gamesPlayed;
+    private long errors;
+    private int connected;
+    private long connections; //opened in total
+    private long frames; //sent and received
+
+    LoadGenerator(final InetSocketAddress address, final int gameCount, final long duration, final long thinkTime,
+                  final boolean printsIntervals) throws IOException {
+        checkArgument(gameCount > 0 && duration > 0 && thinkTime >= 0, "Incorrect load");
+        this.address = address;
+        this.gameCount = gameCount;
+        this.duration = duration;
+        this.thinkTime = thinkTime;
+        this.printsIntervals = printsIntervals;
+        this.selector = Selector.open();
+        this.timers = new TimingWheel<>(Settings.TIMER_BUCKETS, Settings.LOAD_TICK, System.currentTimeMillis());
+        this.random = ThreadLocalRandom.current();
+        this.games = new ArrayList<>(gameCount);
+        this.interval = new LatencyHistogram(HIGHEST_LATENCY);
+        this.total = new LatencyHistogram(HIGHEST_LATENCY);
+    }
+
+    Report run() throws IOException {
+        for (int i = 0; i < this.gameCount; ++i) {
+            final LoadGame game = new LoadGame(LINES[i % LINES.length]);
+            connect(game);
+            this.games.add(game);
+        }
+        final long start = System.currentTimeMillis();
+        final long end = start + this.duration;
+        long nextReport = start + Settings.LOAD_REPORT_INTERVAL;
+        long now = start;
+        while (now < end) {
+            this.selector.select(Settings.LOAD_TICK);
+            final Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                final SelectionKey key = keys.next();
+                keys.remove();
+                //closed by another event of this round
+                if (!key.isValid())
+                    continue;
+                final Client client = (Client) key.attachment();
+                try {
+                    if (key.isConnectable())
+                        connected(client);
+                    if (key.isValid() && key.isWritable())
+                        flush(client);
+                    if (key.isValid() && key.isReadable())
+                        read(client);
+                } catch (IOException e) {
+                    ++this.errors;
+                    System.err.printf("Connection failed: %s\n", e.getMessage());
+                    close(client);
+                }
+            }
+            now = System.currentTimeMillis();
+            this.timers.advance(now, Runnable::run);
+            if (now >= nextReport) {
+                if (this.printsIntervals)
+                    System.out.printf("%d/%d connected, %d moves/s, %s, %d games played, %d errors\n", this.connected,
+                            this.gameCount * 2, this.intervalMoves * 1000 / Settings.LOAD_REPORT_INTERVAL,
+                            this.interval.summary(), this.gamesPlayed, this.errors);
+                this.total.add(this.interval);
+                this.interval.reset();
+                this.intervalMoves = 0;
+                nextReport += Settings.LOAD_REPORT_INTERVAL;
+            }
+        }
+        this.total.add(this.interval);
+        final long elapsed = Math.max(1, now - start);
+        final Report report = new Report(this.connections * 1000 / elapsed, this.frames * 1000 / elapsed,
+                this.moves * 1000 / elapsed, this.total.summary(), this.errors);
+        System.out.printf("Total: %d moves in %d ms, %d moves/s, %s, %d games played, %d errors\n"
+                + "%d connections/s, %d messages/s\n", this.moves, elapsed, report.movesPerSecond,
+                report.roundTrips, this.gamesPlayed, this.errors, report.connectionsPerSecond,
+                report.messagesPerSecond);
+        for (final SelectionKey key : this.selector.keys()) {
+            key.channel().close();
+        }
+        this.selector.close();
+        return report;
+    }
+
+    private void connect(final LoadGame game) {
+        game.connected = 0;
+        try {
+            game.white = connect(game, game.white);
+            game.black = connect(game, game.black);
+        } catch (IOException e) {
+            ++this.errors;
+            System.err.printf("Connection failed: %s\n", e.getMessage());
+        }
+    }
+
+    private Client connect(final LoadGame game, final Client previous) throws IOException {
+        if (previous != null)
+            close(previous);
+        final SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        final Client client = new Client(channel, game);
+        final int interest = channel.connect(this.address) ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT;
+        client.key = channel.register(this.selector, interest, client);
+        if (interest == SelectionKey.OP_READ)
+            opened(client);
+        return client;
+    }
+
+    private void close(final Client client) {
+        if (client.isOpened)
+            --this.connected;
+        client.isOpened = false;
+        client.key.cancel();
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void connected(final Client client) throws IOException {
+        client.channel.finishConnect();
+        client.key.interestOps(SelectionKey.OP_READ);
+        opened(client);
+    }
+
+    //the protocol is chosen by the first byte. once both are in, the game starts at a random moment within
+    //a report interval, so that the pairs don't move in step
+    private void opened(final Client client) throws IOException {
+        ++this.connected;
+        ++this.connections;
+        client.isOpened = true;
+        client.out.put(BinaryFrames.MAGIC);
+        flush(client);
+        final LoadGame game = client.game;
+        if (++game.connected == 2)
+            later(() -> begin(game), this.random.nextInt(Settings.LOAD_REPORT_INTERVAL));
+    }
+
+    private void begin(final LoadGame game) {
+        game.phase = Phase.CREATING;
+        game.ply = 0;
+        send(game.white, BinaryFrames.CREATE, null);
+    }
+
+    private void read(final Client client) throws IOException {
+        if (client.channel.read(client.in) < 0) {
+            final LoadGame game = client.game;
+            if (game.phase != Phase.EXITING || client != game.white)
+                throw new IOException("Closed by the server");
+            close(game.white);
+            close(game.black);
+            later(() -> connect(game), think());
+            return;
+        }
+        client.in.flip();
+        while (client.in.remaining() >= BinaryFrames.HEADER_SIZE) {
+            final int length = client.in.getChar(client.in.position());
+            if (client.in.remaining() < BinaryFrames.HEADER_SIZE + length)
+                break;
+            client.in.position(client.in.position() + BinaryFrames.HEADER_SIZE);
+            final ByteBuffer frame = client.in.slice();
+            frame.limit(length);
+            client.in.position(client.in.position() + length);
+            ++this.frames;
+            if (length > 0)
+                received(client, frame.get(), frame);
+        }
+        client.in.compact();
+        //a frame larger than the buffer
+        if (!client.in.hasRemaining()) {
+            final ByteBuffer larger = ByteBuffer.allocate(client.in.capacity() * 2);
+            client.in.flip();
+            client.in = larger.put(client.in);
+        }
+    }
+
+    private void received(final Client client, final byte opcode, final ByteBuffer payload) {
+        final LoadGame game = client.game;
+        switch (game.phase) {
+            case CREATING:
+                if (client != game.white)
+                    return;
+                if (opcode != BinaryFrames.GAME) {
+                    failed(game);
+                    return;
+                }
+                final ByteBuffer join = ByteBuffer.allocate(16);
+                join.putLong(payload.getLong()).putLong(payload.getLong()).flip();
+                game.phase = Phase.JOINING;
+                send(game.black, BinaryFrames.JOIN, join);
+                break;
+            case JOINING:
+                if (client != game.black)
+                    return;
+                if (opcode != BinaryFrames.GAME) {
+                    failed(game);
+                    return;
+                }
+                game.phase = Phase.PLAYING;
+                think(game);
+                break;
+            case PLAYING:
+                if (client != game.mover() || client.sentAt == 0)
+                    return;
+                if (opcode == BinaryFrames.MESSAGE) {
+                    client.sentAt = 0;
+                    failed(game);
+                    return;
+                }
+                //the reply to the move, not a notice that was on its way before it; state: status, side to move,
+                //color, last move
+                if (opcode != BinaryFrames.STATE_REPLY || payload.getChar(payload.position() + 3) != client.move)
+                    return;
+                final long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - client.sentAt);
+                client.sentAt = 0;
+                this.interval.record(latency);
+                ++this.intervalMoves;
+                ++this.moves;
+                if (++game.ply < game.line.length) {
+                    think(game);
+                } else {
+                    ++this.gamesPlayed;
+                    exit(game);
+                }
+                break;
+            case EXITING:
+                break;
+        }
+    }
+
+    private void think(final LoadGame game) {
+        later(() -> move(game), think());
+    }
+
+    private void move(final LoadGame game) {
+        final Client mover = game.mover();
+        final String move = game.line[game.ply];
+        mover.move = Location.parseSquare(move, 0, 2) | Location.parseSquare(move, 2, 4) << 6;
+        final ByteBuffer payload = ByteBuffer.allocate(2);
+        payload.putChar((char) mover.move).flip();
+        mover.sentAt = System.nanoTime();
+        send(mover, BinaryFrames.MOVE, payload);
+    }
+
+    //the game starts over, an error is not worth stopping the load for
+    private void failed(final LoadGame game) {
+        ++this.errors;
+        exit(game);
+    }
+
+    //the white player leaves, which ends the game for both; the server closes its connection and the pair
+    //connects again
+    private void exit(final LoadGame game) {
+        game.phase = Phase.EXITING;
+        send(game.white, BinaryFrames.EXIT, null);
+    }
+
+    //log-normal around the median think time
+    private long think() {
+        if (this.thinkTime == 0)
+            return 0;
+        final double factor = Math.exp(THINK_SIGMA * this.random.nextGaussian());
+        return (long) (this.thinkTime * Math.min(factor, MAX_THINK_FACTOR));
+    }
+
+    private void later(final Runnable action, final long delay) {
+        if (delay == 0)
+            action.run();
+        else
+            this.timers.schedule(action, System.currentTimeMillis() + delay);
+    }
+
+    private void send(final Client client, final byte opcode, final ByteBuffer payload) {
+        final int length = 1 + (payload == null ? 0 : payload.remaining());
+        ++this.frames;
+        client.out.putChar((char) length).put(opcode);
+        if (payload != null)
+            client.out.put(payload);
+        try {
+            flush(client);
+        } catch (IOException e) {
+            ++this.errors;
+            System.err.printf("Connection failed: %s\n", e.getMessage());
+        }
+    }
+
+    private void flush(final Client client) throws IOException {
+        client.out.flip();
+        client.channel.write(client.out);
+        final boolean isPending = client.out.hasRemaining();
+        client.out.compact();
+        if (client.key.isValid() && client.channel.isConnected())
+            client.key.interestOps(isPending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    static final class Report {
+        final long connectionsPerSecond;
+        final long messagesPerSecond; //frames both ways
+        final long movesPerSecond;
+        final String roundTrips; //percentiles of the moves
+        final long errors;
+
+        Report(final long connectionsPerSecond, final long messagesPerSecond, final long movesPerSecond,
+               final String roundTrips, final long errors) {
+            this.connectionsPerSecond = connectionsPerSecond;
+            this.messagesPerSecond = messagesPerSecond;
+            this.movesPerSecond = movesPerSecond;
+            this.roundTrips = roundTrips;
+            this.errors = errors;
+        }
+    }
+
+    private enum Phase {
+        CREATING,
+        JOINING,
+        PLAYING,
+        EXITING
+    }
+
+    private static final class LoadGame {
+        private final String[] line;
+        private Client white; //creates the game
+        private Client black;
+        private int connected;
+        private Phase phase = Phase.CREATING;
+        private int ply;
+
+        LoadGame(final String[] line) {
+            this.line = line;
+        }
+
+        Client mover() {
+            return this.ply % 2 == 0 ? this.white : this.black;
+        }
+    }
+
+    private static final class Client {
+        private final SocketChannel channel;
+        private final LoadGame game;
+        private SelectionKey key;
+        private boolean isOpened;
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        private long sentAt; //System.nanoTime() of the move awaiting its reply, 0 if none
+        private int move;
+
+        Client(final SocketChannel channel, final LoadGame game) {
+            this.channel = channel;
+            this.game = game;
+        }
+    }
+}
@@ -1,18 +1,137 @@
 package ru.hh.homework.chessServer;
 
+import ru.hh.homework.chessServer.game.Engine;
+import ru.hh.homework.chessServer.game.OpeningBook;
+import ru.hh.homework.chessServer.game.Perft;
+import ru.hh.homework.chessServer.game.PositionCache;
+import ru.hh.homework.chessServer.game.Tablebase;
+
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 
 class Main {
-    public static void main(final String[] args) throws IOException {
-        if (args.length != 1) {
-            System.err.println("Usage: java chessServer port");
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        if (args.length == 3 && args[0].equals("--build-book")) {
+            final int entries = OpeningBook.build(Paths.get(args[1]), Paths.get(args[2]));
+            System.out.printf("Wrote %d book entries to %s\n", entries, args[2]);
+            return;
+        }
+        if (args.length == 2 && args[0].equals("--build-tablebase")) {
+            final long start = System.currentTimeMillis();
+            Tablebase.generate(Paths.get(args[1]));
+            System.out.printf("Wrote %s in %d ms\n", args[1], System.currentTimeMillis() - start);
+            return;
+        }
+        if (args.length >= 1 && args.length <= 3 && args[0].equals("--perft")) {
+            final int depth = args.length > 1 ? Integer.parseInt(args[1]) : Settings.PERFT_DEPTH;
+            final int threads = args.length > 2 ? Integer.parseInt(args[2])
+                    : Runtime.getRuntime().availableProcessors();
+            if (!Perft.verify(depth, new ForkJoinPool(threads)))
+                System.exit(1);
+            return;
+        }
+        if ((args.length == 5 || args.length == 6) && args[0].equals("--load")) {
+            new LoadGenerator(new InetSocketAddress(args[1], Integer.parseInt(args[2])), Integer.parseInt(args[3]),
+                    Integer.parseInt(args[4]) * 1000L,
+                    args.length > 5 ? Integer.parseInt(args[5]) : Settings.LOAD_THINK_TIME, true).run();
+            return;
+        }
+        if ((args.length == 4 || args.length == 5) && args[0].equals("--load-reactors")) {
+            new ReactorScaling(Integer.parseInt(args[1]), Integer.parseInt(args[2]) * 1000L,
+                    args.length > 4 ? Integer.parseInt(args[4]) : Settings.LOAD_THINK_TIME,
+                    Integer.parseInt(args[3])).run();
+            return;
+        }
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: java chessServer port [workers] [reactors]\n"
+                    + "       java chessServer --build-book lines.txt book.bin\n"
+                    + "       java chessServer --build-tablebase tablebase.bin\n"
+                    + "       java chessServer --perft [depth] [threads]\n"
+                    + "       java chessServer --load host port games seconds [thinkMillis]\n"
+                    + "       java chessServer --load-reactors games seconds maxReactors [thinkMillis]");
             return;
         }
         final int port = Integer.parseInt(args[0]);
+        final int workers = args.length > 1 ? Integer.parseInt(args[1]) : Settings.WORKERS;
+        final int reactors = args.length > 2 ? Integer.parseInt(args[2]) : Settings.REACTORS;
         System.out.println("Starting chess server ...");
 
-        final Server server = new Server(port);
-        new Thread(server).start();
-        new Thread(new Worker(server)).start();
+        final Journal.Recovery recovery = Journal.recover(Paths.get(Settings.GAME_FOLDER_NAME));
+        System.out.printf("Indexed %d unfinished games in %d ms\n", recovery.games.size(), recovery.elapsedMillis());
+        System.out.printf("Durability: %s\n", Settings.DURABILITY);
+
+        final Dispatcher dispatcher = new Dispatcher(workers);
+        final Server server = new Server(port, reactors, dispatcher);
+        final Engine engine = new Engine(Settings.ENGINE_THREADS, Settings.ENGINE_TABLE_BITS,
+                Settings.ENGINE_THINK_TIME, openBook(Paths.get(Settings.BOOK_FILE_NAME)),
+                openTablebase(Paths.get(Settings.TABLEBASE_FILE_NAME)));
+        final List<Persister> persisters = new ArrayList<>(workers);
+        final List<Worker> shards = new ArrayList<>(workers);
+        for (int shard = 0; shard < workers; ++shard) {
+            final Persister persister = new Persister(server,
+                    new Journal(Paths.get(Settings.GAME_FOLDER_NAME), recovery.sequence));
+            persisters.add(persister);
+            shards.add(new Worker(server, dispatcher, engine, shard, recovery, persister));
+        }
+        recovery.removeObsoleteFiles();
+
+        new Thread(server, "acceptor").start();
+        new Thread(recovery::loadAll, "recovery").start();
+        new Thread(new Matchmaker(server, dispatcher), "matchmaker").start();
+        final Thread stats = new Thread(Main::printStats, "stats");
+        stats.setDaemon(true);
+        stats.start();
+        for (int shard = 0; shard < workers; ++shard) {
+            new Thread(persisters.get(shard), "persister-" + shard).start();
+            new Thread(shards.get(shard), "worker-" + shard).start();
+        }
+    }
+
+    private static Optional<OpeningBook> openBook(final Path file) {
+        if (!Files.exists(file)) {
+            System.out.printf("No opening book at %s\n", file);
+            return Optional.empty();
+        }
+        try {
+            final OpeningBook book = OpeningBook.open(file);
+            System.out.printf("Opening book: %d entries\n", book.size());
+            return Optional.of(book);
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return Optional.empty();
+        }
+    }
+
+    private static Optional<Tablebase> openTablebase(final Path file) {
+        if (!Files.exists(file)) {
+            System.out.printf("No tablebase at %s\n", file);
+            return Optional.empty();
+        }
+        try {
+            final Tablebase tablebase = Tablebase.open(file);
+            System.out.println("Tablebase: KQK, KRK");
+            return Optional.of(tablebase);
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return Optional.empty();
+        }
+    }
+
+    private static void printStats() {
+        try {
+            while (!Thread.interrupted()) {
+                Thread.sleep(Settings.STATS_INTERVAL);
+                System.out.printf("Position cache: %s\n", PositionCache.shared().stats());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
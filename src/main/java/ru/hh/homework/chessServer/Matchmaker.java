@@ -0,0 +1,225 @@
+package ru.hh.homework.chessServer;
+
+import ru.hh.homework.chessServer.game.TimeControl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+//pairs seekers of the same time control with close ratings. the pool is bucketed by time control and rating band,
+//a seeker who waits is offered one more band on each side every WIDEN_INTERVAL, so everybody is paired eventually.
+//a pass over the pool runs at most every PAIRING_INTERVAL, pairs go to the shard of their new game
+class Matchmaker implements Runnable {
+    private static final String NO_CLOCK = "-";
+    private static final int BANDS = Settings.MAX_RATING / Settings.RATING_BAND + 1;
+
+    private final Server server;
+    private final Dispatcher dispatcher;
+    private final Tokens tokens;
+    private final Map<String, Pool> pools; //time control -> pool
+    private final IntMap<Seek> seeks; //connection -> its seek
+    private long lastPass;
+
+    public Matchmaker(final Server server, final Dispatcher dispatcher) {
+        this.server = checkNotNull(server);
+        this.dispatcher = checkNotNull(dispatcher);
+        this.tokens = new Tokens();
+        this.pools = new HashMap<>();
+        this.seeks = new IntMap<>();
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.interrupted()) {
+            try {
+                Exchange request = this.dispatcher.pollSeek(Settings.PAIRING_INTERVAL);
+                int batch = 0;
+                while (request != null) {
+                    process(request);
+                    if (++batch == Settings.MAX_COMMIT_BATCH)
+                        break;
+                    request = this.dispatcher.pollSeek();
+                }
+                final long now = System.currentTimeMillis();
+                if (now - this.lastPass >= Settings.PAIRING_INTERVAL) {
+                    this.lastPass = now;
+                    for (final Pool pool : this.pools.values()) {
+                        pool.pair(now);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void process(final Exchange request) {
+        final Tokens args = this.tokens.reset(request.body);
+        if (args.equalsIgnoreCase(1, "cancel")) {
+            reply(request.connection, cancel(request.connection) ? "Seek is cancelled" : "You are not seeking");
+            return;
+        }
+        TimeControl timeControl = null;
+        int rating = Settings.DEFAULT_RATING;
+        for (int i = 1; i < args.count(); ++i) {
+            final Optional<TimeControl> timeControlMaybe = TimeControl.tryParse(args.get(i));
+            if (timeControlMaybe.isPresent()) {
+                timeControl = timeControlMaybe.get();
+                continue;
+            }
+            rating = parseRating(args.get(i));
+            if (rating < 0) {
+                reply(request.connection, "Usage 'seek timeControl rating', both are optional, or 'seek cancel'");
+                return;
+            }
+        }
+        cancel(request.connection);
+        final String key = timeControl == null ? NO_CLOCK : timeControl.toString();
+        Pool pool = this.pools.get(key);
+        if (pool == null) {
+            pool = new Pool(timeControl);
+            this.pools.put(key, pool);
+        }
+        final Seek seek = new Seek(request.connection, rating, request.received);
+        pool.add(seek);
+        this.seeks.put(seek.connection, seek);
+        this.dispatcher.markSeeking(seek.connection);
+        reply(request.connection, String.format("Seeking a game %s, rating %d",
+                timeControl == null ? "without clock" : timeControl.toString(), rating));
+    }
+
+    //the seek stays in its band until a pass skips it
+    private boolean cancel(final int connection) {
+        final Seek seek = this.seeks.remove(connection);
+        if (seek == null)
+            return false;
+        seek.done = true;
+        this.dispatcher.unmarkSeeking(connection);
+        return true;
+    }
+
+    private void reply(final int connection, final String message) {
+        this.server.write(new Exchange(connection, message));
+    }
+
+    //-1 if s is not a rating
+    private static int parseRating(final String s) {
+        if (s.isEmpty() || s.length() > 4)
+            return -1;
+        int rating = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            rating = rating * 10 + (c - '0');
+        }
+        return rating <= Settings.MAX_RATING ? rating : -1;
+    }
+
+    private class Pool {
+        private final TimeControl timeControl;
+        private final List<ArrayDeque<Seek>> bands; //rating / RATING_BAND -> seeks, oldest first
+        private final Seek[] waiting; //band -> the seek left unpaired within its band by the current pass
+
+        Pool(final TimeControl timeControl) {
+            this.timeControl = timeControl;
+            this.bands = new ArrayList<>(BANDS);
+            for (int i = 0; i < BANDS; ++i) {
+                this.bands.add(new ArrayDeque<>());
+            }
+            this.waiting = new Seek[BANDS];
+        }
+
+        void add(final Seek seek) {
+            this.bands.get(seek.rating / Settings.RATING_BAND).add(seek);
+        }
+
+        //the oldest seeks of a band are paired first, then the ones left over try the bands they reach by now
+        void pair(final long now) {
+            for (int band = 0; band < BANDS; ++band) {
+                final ArrayDeque<Seek> seeks = this.bands.get(band);
+                this.waiting[band] = null;
+                Seek first;
+                while ((first = poll(seeks)) != null) {
+                    final Seek second = poll(seeks);
+                    if (second == null) {
+                        seeks.addFirst(first);
+                        this.waiting[band] = first;
+                        break;
+                    }
+                    start(first, second);
+                }
+            }
+            for (int band = 0; band < BANDS; ++band) {
+                final Seek seek = this.waiting[band];
+                if (seek == null)
+                    continue;
+                for (int other = band + 1; other < BANDS && other - band <= Settings.MAX_BAND_DISTANCE; ++other) {
+                    final Seek opponent = this.waiting[other];
+                    if (opponent != null && other - band <= Math.max(seek.reach(now), opponent.reach(now))) {
+                        this.bands.get(band).remove(seek);
+                        this.bands.get(other).remove(opponent);
+                        this.waiting[other] = null;
+                        start(seek, opponent);
+                        break;
+                    }
+                }
+            }
+        }
+
+        private Seek poll(final ArrayDeque<Seek> seeks) {
+            final Iterator<Seek> iterator = seeks.iterator();
+            while (iterator.hasNext()) {
+                final Seek seek = iterator.next();
+                iterator.remove();
+                if (!seek.done)
+                    return seek;
+            }
+            return null;
+        }
+
+        private void start(final Seek first, final Seek second) {
+            cancel(first.connection);
+            cancel(second.connection);
+            final boolean firstIsWhite = ThreadLocalRandom.current().nextBoolean();
+            final Seek white = firstIsWhite ? first : second;
+            final Seek black = firstIsWhite ? second : first;
+            final UUID gameId = UUID.randomUUID();
+            final Dispatcher dispatcher = Matchmaker.this.dispatcher;
+            final int shard = dispatcher.shardOf(gameId);
+            //requests the seekers send from now on follow the pairing to its shard
+            dispatcher.bind(white.connection, shard);
+            dispatcher.bind(black.connection, shard);
+            dispatcher.dispatchTo(shard, new Pairing(gameId, white.connection, black.connection, white.rating,
+                    black.rating, this.timeControl));
+        }
+    }
+
+    private static class Seek {
+        final int connection;
+        final int rating;
+        final long since;
+        boolean done; //paired or cancelled
+
+        Seek(final int connection, final int rating, final long since) {
+            this.connection = connection;
+            this.rating = rating;
+            this.since = since;
+        }
+
+        //how many bands away an opponent may be by now
+        int reach(final long now) {
+            return (int) Math.min(Settings.MAX_BAND_DISTANCE, (now - this.since) / Settings.WIDEN_INTERVAL);
+        }
+    }
+}
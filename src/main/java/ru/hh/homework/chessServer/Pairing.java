@@ -0,0 +1,29 @@
+package ru.hh.homework.chessServer;
+
+import ru.hh.homework.chessServer.game.TimeControl;
+
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+//two seekers matched by the matchmaker, sent to the shard of the game it picked for them.
+//clients cannot send it, it never goes through the command parser
+class Pairing extends Exchange {
+    public final UUID gameId;
+    public final int white;
+    public final int black;
+    public final int whiteRating; //to seek again if the opponent is gone
+    public final int blackRating;
+    public final TimeControl timeControl; //null for a game without clock
+
+    public Pairing(final UUID gameId, final int white, final int black, final int whiteRating, final int blackRating,
+                   final TimeControl timeControl) {
+        super(white, (String) null);
+        this.gameId = checkNotNull(gameId);
+        this.white = white;
+        this.black = black;
+        this.whiteRating = whiteRating;
+        this.blackRating = blackRating;
+        this.timeControl = timeControl;
+    }
+}
@@ -0,0 +1,143 @@
+package ru.hh.homework.chessServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+//persistence stage of a shard: owns the journal, so disk latency never blocks the worker.
+//batches queued while the previous write was in progress are coalesced per game and share one fsync
+class Persister implements Runnable {
+    private final Server server;
+    private final Journal journal;
+    private final BlockingQueue<Batch> batches;
+    private final AtomicBoolean compactionRequested;
+    private final List<Batch> drained;
+    private final Map<UUID, List<Journal.Record>> pending; //gameId -> records not yet written
+    private final List<Exchange> responses; //held until the pending records are on disk
+    private List<Journal.Record> checkpoint; //snapshots to start a new segment with or null
+
+    public Persister(final Server server, final Journal journal) {
+        this.server = checkNotNull(server);
+        this.journal = checkNotNull(journal);
+        this.batches = new ArrayBlockingQueue<>(Settings.PERSISTENCE_QUEUE_SIZE);
+        this.compactionRequested = new AtomicBoolean();
+        this.drained = new ArrayList<>();
+        this.pending = new LinkedHashMap<>();
+        this.responses = new ArrayList<>();
+    }
+
+    //blocks only when the disk falls behind by a whole queue of batches
+    public void submit(final Batch batch) throws InterruptedException {
+        this.batches.put(batch);
+    }
+
+    //the worker answers with snapshots of its live games in the next batch
+    public boolean takeCompactionRequest() {
+        return this.compactionRequested.compareAndSet(true, false);
+    }
+
+    //used at startup before the persister thread runs
+    public void checkpoint(final Collection<Journal.Record> snapshots) throws IOException {
+        this.journal.compact(snapshots);
+    }
+
+    @Override
+    public void run() {
+        boolean isFailing = false;
+        while (!Thread.interrupted()) {
+            try {
+                if (isFailing) {
+                    //nothing new is taken until the held records are on disk, the queue pushes back on the workers
+                    Thread.sleep(Settings.JOURNAL_RETRY_DELAY);
+                } else {
+                    this.drained.add(this.batches.take());
+                    this.batches.drainTo(this.drained, Settings.MAX_COMMIT_BATCH - 1);
+                    for (final Batch batch : this.drained) {
+                        if (batch.checkpoint != null) {
+                            //the snapshots already include everything pending
+                            this.pending.clear();
+                            this.checkpoint = batch.checkpoint;
+                        }
+                        for (final Journal.Record record : batch.records) {
+                            coalesce(record);
+                        }
+                        this.responses.addAll(batch.responses);
+                    }
+                }
+                commit();
+                if (isFailing)
+                    System.out.println("Journal is written again");
+                isFailing = false;
+                //only what is on disk is acknowledged
+                this.responses.forEach(this.server::write);
+                this.responses.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                if (!isFailing) {
+                    System.err.printf("Journal write failed, %d responses are held until a retry succeeds\n",
+                            this.responses.size());
+                    e.printStackTrace();
+                }
+                isFailing = true;
+                try {
+                    this.journal.rollback();
+                } catch (IOException rollbackException) {
+                    //the next commit overwrites the tail anyway
+                }
+            } finally {
+                this.drained.clear();
+            }
+        }
+    }
+
+    private void coalesce(final Journal.Record record) {
+        List<Journal.Record> records = this.pending.get(record.gameId);
+        if (records == null) {
+            records = new ArrayList<>();
+            this.pending.put(record.gameId, records);
+        } else if (record.supersedes()) {
+            records.clear();
+        }
+        records.add(record);
+    }
+
+    //pending records and the checkpoint are dropped only once written, a failed commit is repeated in full
+    private void commit() throws IOException {
+        if (this.checkpoint != null) {
+            this.journal.compact(this.checkpoint);
+            this.checkpoint = null;
+        }
+        if (this.pending.isEmpty())
+            return;
+        for (final List<Journal.Record> records : this.pending.values()) {
+            records.forEach(this.journal::append);
+        }
+        this.journal.commit();
+        this.pending.clear();
+        if (this.journal.needsCompaction())
+            this.compactionRequested.set(true);
+    }
+
+    public static class Batch {
+        public final List<Journal.Record> records;
+        public final List<Exchange> responses;
+        public final List<Journal.Record> checkpoint; //snapshots of all live games of the shard or null
+
+        public Batch(final List<Journal.Record> records, final List<Exchange> responses,
+                     final List<Journal.Record> checkpoint) {
+            this.records = records;
+            this.responses = responses;
+            this.checkpoint = checkpoint;
+        }
+    }
+}
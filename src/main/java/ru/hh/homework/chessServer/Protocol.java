@@ -0,0 +1,13 @@
+package ru.hh.homework.chessServer;
+
+//chosen by the first bytes a client sends
+enum Protocol {
+    TEXT, //newline-delimited commands and replies, for telnet
+    BINARY, //length-prefixed frames, see BinaryFrames
+    WEBSOCKET, //HTTP upgrade, commands in text messages and JSON replies, see JsonFrames
+    WEBSOCKET_BINARY; //HTTP upgrade with the chess.binary subprotocol, BinaryFrames without the length in messages
+
+    public boolean isWebSocket() {
+        return this == WEBSOCKET || this == WEBSOCKET_BINARY;
+    }
+}
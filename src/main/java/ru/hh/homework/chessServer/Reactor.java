@@ -0,0 +1,178 @@
+package ru.hh.homework.chessServer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+//selector thread serving reads and writes of the connections handed over by the acceptor
+class Reactor implements Runnable {
+    private final Server server;
+    private final Selector selector;
+    private final ByteBuffer inputBuffer;
+
+    private final Queue<Connection> pendingRegistrations;
+    private final Queue<Connection> pendingWrites;
+    private final TimingWheel<Connection> timeouts; //idle connections
+
+    public Reactor(final Server server) throws IOException {
+        this.server = checkNotNull(server);
+        this.selector = Selector.open();
+        this.inputBuffer = ByteBuffer.allocateDirect(Settings.BUFFER_SIZE);
+        this.pendingRegistrations = new ConcurrentLinkedQueue<>();
+        this.pendingWrites = new ConcurrentLinkedQueue<>();
+        this.timeouts = new TimingWheel<>(Settings.TIMER_BUCKETS, Settings.TIMEOUT, System.currentTimeMillis());
+    }
+
+    public void register(final Connection connection) {
+        this.pendingRegistrations.add(connection);
+        this.selector.wakeup();
+    }
+
+    public void requestFlush(final Connection connection) {
+        if (connection.scheduleWrite()) {
+            this.pendingWrites.add(connection);
+            this.selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.interrupted()) {
+            try {
+                this.selector.select(Settings.TIMEOUT);
+                this.processPendingRegistrations();
+                this.processPendingWrites();
+                this.timeouts.advance(System.currentTimeMillis(), this::expired);
+
+                final Iterator<SelectionKey> selectedKeys
+                        = this.selector.selectedKeys().iterator();
+                while (selectedKeys.hasNext()) {
+                    final SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+
+                    if (!key.isValid()) {
+                        System.err.println("Key is not valid " + key);
+                        continue;
+                    }
+                    if (key.isReadable()) {
+                        this.read(key);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        this.flush(key, (Connection) key.attachment());
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void processPendingRegistrations() {
+        Connection connection;
+        while ((connection = this.pendingRegistrations.poll()) != null) {
+            try {
+                connection.channel.register(this.selector, SelectionKey.OP_READ, connection);
+                //the protocol is not known yet, the first check decides
+                connection.setTimeout(this.timeouts.schedule(connection,
+                        System.currentTimeMillis() + Settings.PING_INTERVAL));
+            } catch (ClosedChannelException e) {
+                this.server.closed(connection, true);
+            }
+        }
+    }
+
+    private void read(final SelectionKey key) {
+        this.inputBuffer.clear();
+        final Connection connection = (Connection) key.attachment();
+        try {
+            final int byteCount = connection.channel.read(this.inputBuffer);
+            if (byteCount == -1) {
+                this.closeChannel(key, connection, true);
+                return;
+            }
+        } catch (IOException e) {
+            this.closeChannel(key, connection, true);
+            e.printStackTrace();
+            return;
+        }
+        this.inputBuffer.flip();
+        final List<String> lines = connection.frame(this.inputBuffer);
+        if (lines != null) {
+            for (final String line : lines) {
+                this.server.request(new Exchange(connection.id, line));
+            }
+        }
+    }
+
+    //a WebSocket silent for an interval is pinged and closed after two, other clients after IDLE_TIMEOUT.
+    //reads only update the connection, its timeout is moved when it expires
+    private void expired(final Connection connection) {
+        final SelectionKey key = connection.channel.keyFor(this.selector);
+        if (key == null || !key.isValid())
+            return;
+        final long now = System.currentTimeMillis();
+        final long lastRead = connection.getLastRead();
+        final long timeout = connection.isWebSocket() ? 2L * Settings.PING_INTERVAL : Settings.IDLE_TIMEOUT;
+        if (now - lastRead >= timeout) {
+            System.out.printf("Idle %s is closed\n", connection.address);
+            this.closeChannel(key, connection, true);
+            return;
+        }
+        long deadline = lastRead + timeout;
+        if (connection.isWebSocket()) {
+            if (now - lastRead >= Settings.PING_INTERVAL) {
+                connection.enqueue(WebSocket.frame(WebSocket.PING, ByteBuffer.allocate(0)));
+                this.flush(key, connection);
+            } else {
+                deadline = lastRead + Settings.PING_INTERVAL;
+            }
+        }
+        connection.setTimeout(this.timeouts.schedule(connection, deadline));
+    }
+
+    private void processPendingWrites() {
+        Connection connection;
+        while ((connection = this.pendingWrites.poll()) != null) {
+            connection.resetWriteScheduled();
+            final SelectionKey key = connection.channel.keyFor(this.selector);
+            if (key != null && key.isValid())
+                this.flush(key, connection);
+        }
+    }
+
+    private void flush(final SelectionKey key, final Connection connection) {
+        try {
+            if (!connection.flush()) {
+                this.closeChannel(key, connection, false);
+            } else if (connection.hasPendingOutput()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            } else {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            this.closeChannel(key, connection, true);
+            e.printStackTrace();
+        }
+    }
+
+    private void closeChannel(final SelectionKey key, final Connection connection, boolean withRequest) {
+        key.cancel();
+        this.timeouts.cancel(connection.getTimeout());
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            this.server.closed(connection, withRequest);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package ru.hh.homework.chessServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+//the same load against a fresh local server with 1, 2, 4 .. reactors: connection and message throughput of each
+//run side by side. every server is a separate JVM in a directory of its own, so no journal is carried over
+final class ReactorScaling {
+    private static final long STARTUP_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+    private static final long STARTUP_POLL = 100;
+
+    private final int gameCount;
+    private final long duration; //milliseconds
+    private final long thinkTime;
+    private final int maxReactors;
+
+    ReactorScaling(final int gameCount, final long duration, final long thinkTime, final int maxReactors) {
+        checkArgument(maxReactors > 0, "Incorrect reactor count");
+        this.gameCount = gameCount;
+        this.duration = duration;
+        this.thinkTime = thinkTime;
+        this.maxReactors = maxReactors;
+    }
+
+    void run() throws IOException, InterruptedException {
+        final List<String> rows = new ArrayList<>();
+        LoadGenerator.Report first = null;
+        for (int reactors = 1; reactors <= this.maxReactors; reactors *= 2) {
+            System.out.printf("Reactors: %d\n", reactors);
+            final LoadGenerator.Report report = measure(reactors);
+            if (first == null)
+                first = report;
+            rows.add(String.format("%8d %14d %14d %8.2fx %s%s", reactors, report.connectionsPerSecond,
+                    report.messagesPerSecond, first.messagesPerSecond == 0 ? 0.0
+                            : (double) report.messagesPerSecond / first.messagesPerSecond,
+                    report.roundTrips, report.errors == 0 ? "" : ", " + report.errors + " errors"));
+        }
+        System.out.printf("%8s %14s %14s %9s %s\n", "reactors", "connections/s", "messages/s", "speedup",
+                "move round trips");
+        rows.forEach(System.out::println);
+    }
+
+    private LoadGenerator.Report measure(final int reactors) throws IOException, InterruptedException {
+        final Path directory = Files.createTempDirectory("chessServer-scaling");
+        final int port = freePort();
+        final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        final Process server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Main.class.getName(), String.valueOf(port), String.valueOf(Settings.WORKERS), String.valueOf(reactors))
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(directory.resolve("server.log").toFile())
+                .start();
+        try {
+            final InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+            awaitStartup(server, address);
+            return new LoadGenerator(address, this.gameCount, this.duration, this.thinkTime, false).run();
+        } finally {
+            server.destroy();
+            server.waitFor();
+            delete(directory);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitStartup(final Process server, final InetSocketAddress address)
+            throws IOException, InterruptedException {
+        final long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT;
+        while (true) {
+            if (!server.isAlive())
+                throw new IOException("Server exited with " + server.exitValue());
+            try (final Socket socket = new Socket()) {
+                socket.connect(address, (int) STARTUP_POLL);
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline)
+                    throw e;
+            }
+            Thread.sleep(STARTUP_POLL);
+        }
+    }
+
+    private static void delete(final Path directory) throws IOException {
+        try (final Stream<Path> files = Files.walk(directory)) {
+            for (final Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
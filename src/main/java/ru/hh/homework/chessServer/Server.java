@@ -1,39 +1,52 @@
 package ru.hh.homework.chessServer;
 
+import ru.hh.homework.chessServer.game.Display;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
+//acceptor: hands accepted sockets round-robin to the reactors
 class Server implements Runnable {
+    private static final int SLOT_BITS = Integer.numberOfTrailingZeros(Settings.MAX_CONNECTIONS);
+    private static final int MAX_GENERATION = Integer.MAX_VALUE >>> SLOT_BITS;
+
     private final ServerSocketChannel serverSocket;
     private final Selector selector;
-    private final ByteBuffer inputBuffer;
-    private final ByteBuffer outputBuffer;
     private final Charset charset;
 
-    private final ConcurrentMap<String, SocketChannel> socketChannels;
-    private final BlockingQueue<Exchange> requestQueue;
-
-    public Server(final int port) throws IOException {
-        this.socketChannels = new ConcurrentHashMap<>();
-        this.requestQueue = new LinkedBlockingQueue<>();
-
-        this.inputBuffer = ByteBuffer.allocateDirect(Settings.BUFFER_SIZE);
-        this.outputBuffer = ByteBuffer.allocateDirect(Settings.BUFFER_SIZE);
+    private final List<Reactor> reactors;
+    private final AtomicReferenceArray<Connection> connections; //slot -> connection
+    private final int[] generations; //slot -> generation of its latest id, acceptor thread only
+    private int nextSlot;
+    private final Dispatcher dispatcher;
+    private int nextReactor;
+
+    public Server(final int port, final int reactorCount, final Dispatcher dispatcher) throws IOException {
+        checkArgument(reactorCount > 0, "At least one reactor is required");
+        this.connections = new AtomicReferenceArray<>(Settings.MAX_CONNECTIONS);
+        this.generations = new int[Settings.MAX_CONNECTIONS];
+        this.dispatcher = checkNotNull(dispatcher);
         this.charset = StandardCharsets.US_ASCII;
 
+        this.reactors = new ArrayList<>(reactorCount);
+        for (int i = 0; i < reactorCount; ++i) {
+            this.reactors.add(new Reactor(this));
+        }
+
         this.serverSocket = ServerSocketChannel.open();
         this.serverSocket.socket().bind(new InetSocketAddress(port));
         this.serverSocket.configureBlocking(false);
@@ -41,35 +54,98 @@ class Server implements Runnable {
         this.serverSocket.register(this.selector, SelectionKey.OP_ACCEPT);
     }
 
-    public synchronized void write(final Exchange response) {
-        if (!this.socketChannels.containsKey(response.address))
+    public void write(final Exchange response) {
+        if (response instanceof Broadcast) {
+            broadcast((Broadcast) response);
             return;
-
-        if (response.body.equals(Settings.Command.CLOSE.name())) {
-            closeChannel(response.address, false);
+        }
+        final Connection connection = connection(response.connection);
+        if (connection == null)
             return;
+
+        if (Settings.Command.CLOSE.name().equals(response.body)) {
+            if (connection.getProtocol() != null && connection.getProtocol().isWebSocket())
+                connection.enqueue(WebSocket.closeFrame(WebSocket.CLOSE_NORMAL));
+            connection.enqueueClose();
+        } else if (!connection.enqueue(encode(connection.getProtocol(), response.frame, response.body))) {
+            System.err.printf("Output queue overflow %s\n", connection.address);
+            connection.enqueueClose();
+            this.dispatcher.dispatch(new Exchange(connection.id, Settings.Command.CLOSE.name()));
         }
+        connection.reactor.requestFlush(connection);
+    }
 
-        this.outputBuffer.clear();
-        this.outputBuffer.put((response.body + "\n").getBytes(this.charset));
-        this.outputBuffer.flip();
-        try {
-            this.socketChannels.get(response.address).write(this.outputBuffer);
-        } catch (IOException e) {
-            closeChannel(response.address, true);
-            e.printStackTrace();
+    //a watcher that doesn't keep up misses updates instead of being closed or holding up anyone else
+    private void broadcast(final Broadcast broadcast) {
+        for (int variant = 0; variant < Broadcast.VARIANTS; ++variant) {
+            final ByteBuffer frame = broadcast.frame(variant);
+            if (frame == null)
+                continue;
+            for (final int id : broadcast.connections(variant)) {
+                final Connection connection = connection(id);
+                if (connection == null)
+                    continue;
+                if (connection.offer(frame.duplicate(), Settings.MAX_WATCHER_PENDING_BYTES))
+                    connection.reactor.requestFlush(connection);
+            }
+        }
+    }
+
+    //a reply in the wire format of the protocol: binary clients get text replies as MESSAGE frames,
+    //WebSocket clients get them in JSON messages
+    ByteBuffer encode(final Protocol protocol, final ByteBuffer frame, final String body) {
+        if (protocol == Protocol.WEBSOCKET) {
+            return WebSocket.frame(WebSocket.TEXT, frame != null ? frame.duplicate() : JsonFrames.message(body));
+        }
+        if (protocol == Protocol.WEBSOCKET_BINARY) {
+            final ByteBuffer payload = frame != null ? frame.duplicate() : BinaryFrames.message(body);
+            payload.position(payload.position() + BinaryFrames.HEADER_SIZE);
+            return WebSocket.frame(WebSocket.BINARY, payload);
         }
+        if (frame != null)
+            return frame.duplicate();
+        if (protocol == Protocol.BINARY)
+            return BinaryFrames.message(body);
+        return ByteBuffer.wrap((body + "\n").getBytes(this.charset));
+    }
+
+    //TEXT until the client chose otherwise
+    public Protocol protocol(final int id) {
+        final Connection connection = connection(id);
+        return connection == null || connection.getProtocol() == null ? Protocol.TEXT : connection.getProtocol();
+    }
+
+    public boolean isOpen(final int id) {
+        return connection(id) != null;
+    }
+
+    public Display display(final int id) {
+        final Connection connection = connection(id);
+        return connection == null ? Display.BOARD : connection.getDisplay();
     }
 
-    public Exchange takeRequest() throws InterruptedException {
-        return this.requestQueue.take();
+    public void setDisplay(final int id, final Display display) {
+        final Connection connection = connection(id);
+        if (connection != null)
+            connection.setDisplay(display);
+    }
+
+    //null if the connection is closed, a stale id never matches the slot's next connection
+    private Connection connection(final int id) {
+        if (id == Connection.NONE)
+            return null;
+        final Connection connection = this.connections.get(Connection.slot(id));
+        return connection != null && connection.id == id ? connection : null;
     }
 
     @Override
     public void run() {
+        for (int i = 0; i < this.reactors.size(); ++i) {
+            new Thread(this.reactors.get(i), "reactor-" + i).start();
+        }
 
         System.out.println("ru.hh.homework.chessServer.Server started on port: "
-                + this.serverSocket.socket().getLocalPort());
+                + this.serverSocket.socket().getLocalPort() + ", reactors: " + this.reactors.size());
 
         while (!Thread.interrupted()) {
             try {
@@ -88,8 +164,6 @@ class Server implements Runnable {
                         System.err.println("Key is not valid " + key);
                     } else if (key.isAcceptable()) {
                         this.accept(key);
-                    } else if (key.isReadable()) {
-                        this.read(key);
                     }
                 }
             } catch (Exception e) {
@@ -98,65 +172,50 @@ class Server implements Runnable {
         }
     }
 
-    private void accept(final SelectionKey key) throws IOException {
-        final ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
-        final SocketChannel socketChannel = serverSocketChannel.accept();
-        if (socketChannel != null) {
-            socketChannel.configureBlocking(false);
-            socketChannel.register(this.selector, SelectionKey.OP_READ);
+    void request(final Exchange request) {
+        this.dispatcher.dispatch(request);
+    }
 
-            final String address = socketChannel.getRemoteAddress().toString();
-            this.socketChannels.put(address, socketChannel);
-            System.out.printf("Connected %s\n", address);
+    void closed(final Connection connection, final boolean withRequest) {
+        if (this.connections.compareAndSet(Connection.slot(connection.id), connection, null)) {
+            System.out.printf("Disconnected %s\n", connection.address);
+            if (withRequest)
+                this.dispatcher.dispatch(new Exchange(connection.id, Settings.Command.CLOSE.name()));
         }
     }
 
-    private void read(final SelectionKey key) {
-        this.inputBuffer.clear();
-        final SocketChannel socketChannel = (SocketChannel) key.channel();
-        String address = null;
-        try {
-            address = socketChannel.getRemoteAddress().toString();
-            final int byteCount = socketChannel.read(this.inputBuffer);
-            this.inputBuffer.flip();
-            if (byteCount == -1) {
-                key.cancel();
-                this.closeChannel(address, socketChannel, true);
+    private void accept(final SelectionKey key) throws IOException {
+        final ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
+        SocketChannel socketChannel;
+        while ((socketChannel = serverSocketChannel.accept()) != null) {
+            socketChannel.configureBlocking(false);
+            final String address = socketChannel.getRemoteAddress().toString();
+            final int id = nextId();
+            if (id == Connection.NONE) {
+                System.err.printf("Too many connections, %s is refused\n", address);
+                socketChannel.close();
+                continue;
             }
-        } catch (IOException e) {
-            key.cancel();
-            this.closeChannel(address, socketChannel, true);
-            this.inputBuffer.clear();
-            e.printStackTrace();
-            return;
-        }
-        if (this.inputBuffer.limit() > 0) {
-            final CharBuffer charBuffer = this.charset.decode(this.inputBuffer);
-            this.requestQueue.add(new Exchange(address, charBuffer.toString()));
-        }
-        this.inputBuffer.clear();
-    }
+            final Reactor reactor = this.reactors.get(this.nextReactor);
+            this.nextReactor = (this.nextReactor + 1) % this.reactors.size();
 
-    private void closeChannel(final String address, boolean withRequest) {
-        if (this.socketChannels.containsKey(address))
-            closeChannel(address, this.socketChannels.get(address), withRequest);
+            final Connection connection = new Connection(id, address, socketChannel, reactor);
+            this.connections.set(Connection.slot(id), connection);
+            reactor.register(connection);
+            System.out.printf("Connected %s\n", address);
+        }
     }
 
-    private void closeChannel(final String address, final SocketChannel socketChannel, boolean withRequest) {
-        if (socketChannel != null) {
-            try {
-                socketChannel.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                if (address != null) {
-                    this.socketChannels.remove(address);
-                    System.out.printf("Disconnected %s\n", address);
-                    if (withRequest)
-                        this.requestQueue.add(new Exchange(address, Settings.Command.CLOSE.name()));
-                } else
-                    this.socketChannels.values().remove(socketChannel);
+    //takes the next free slot round-robin so that a just freed slot is reused as late as possible
+    private int nextId() {
+        for (int i = 0; i < Settings.MAX_CONNECTIONS; ++i) {
+            final int slot = this.nextSlot;
+            this.nextSlot = (this.nextSlot + 1) & (Settings.MAX_CONNECTIONS - 1);
+            if (this.connections.get(slot) == null) {
+                this.generations[slot] = this.generations[slot] % MAX_GENERATION + 1;
+                return this.generations[slot] << SLOT_BITS | slot;
             }
         }
+        return Connection.NONE;
     }
 }
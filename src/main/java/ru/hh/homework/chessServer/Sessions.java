@@ -0,0 +1,54 @@
+package ru.hh.homework.chessServer;
+
+import ru.hh.homework.chessServer.game.Player;
+
+import java.util.HashMap;
+import java.util.Map;
+
+//connection id <-> player of a worker; a connection plays one player and a player has one connection
+class Sessions {
+    private final IntMap<Player> players; //connection -> player
+    private final Map<Player, Integer> connections; //player -> connection
+
+    public Sessions() {
+        this.players = new IntMap<>();
+        this.connections = new HashMap<>();
+    }
+
+    public boolean contains(final int connection) {
+        return this.players.containsKey(connection);
+    }
+
+    public Player get(final int connection) {
+        return this.players.get(connection);
+    }
+
+    //Connection.NONE if the player has no connection
+    public int connectionOf(final Player player) {
+        final Integer connection = this.connections.get(player);
+        return connection == null ? Connection.NONE : connection;
+    }
+
+    //replaces the previous sessions of both the connection and the player
+    public void put(final int connection, final Player player) {
+        remove(connection);
+        removePlayer(player);
+        this.players.put(connection, player);
+        this.connections.put(player, connection);
+    }
+
+    public Player remove(final int connection) {
+        final Player player = this.players.remove(connection);
+        if (player != null)
+            this.connections.remove(player);
+        return player;
+    }
+
+    public int removePlayer(final Player player) {
+        final Integer connection = this.connections.remove(player);
+        if (connection == null)
+            return Connection.NONE;
+        this.players.remove(connection);
+        return connection;
+    }
+}
@@ -1,13 +1,52 @@
 package ru.hh.homework.chessServer;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 public final class Settings {
     public static final int BUFFER_SIZE = 2 << 13;
     public static final int TIMEOUT = 1000;
+    public static final int MAX_LINE_LENGTH = 1024;
+    public static final int MAX_PENDING_BYTES = 2 << 19;
+    public static final int MAX_WATCHER_PENDING_BYTES = 2 << 15;
+    public static final int MAX_HANDSHAKE_SIZE = 8192;
+    public static final int PING_INTERVAL = 30000; //a silent WebSocket is pinged, and closed after two intervals
+    public static final int IDLE_TIMEOUT = 30 * 60 * 1000; //other clients are closed after that long in silence
+    public static final int GAME_IDLE_TIMEOUT = 10 * 60 * 1000; //a game nobody plays or watches is evicted
+    public static final int TIMER_BUCKETS = 512; //power of two
+    public static final int TIMER_TICK = 50; //of worker timers, a flag falls at most that late
+    public static final int DEFAULT_RATING = 1500;
+    public static final int MAX_RATING = 3000;
+    public static final int RATING_BAND = 100; //seekers within a band are paired right away
+    public static final int MAX_BAND_DISTANCE = 5; //how far apart in bands the ratings of a pair may end up
+    public static final int WIDEN_INTERVAL = 2000; //a waiting seeker reaches one more band after each
+    public static final int PAIRING_INTERVAL = 10; //between passes over the matchmaking pool
+    public static final int ENGINE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    public static final int ENGINE_TABLE_BITS = 20; //2^20 positions of 16 bytes shared by all engine games
+    public static final int ENGINE_THINK_TIME = 100; //per move and engine level, less when the clock is short
+    public static final int STATS_INTERVAL = 60 * 1000;
+    public static final int JOURNAL_RETRY_DELAY = 1000; //after a failed write, responses wait for it to succeed
+    public static final int LOAD_THINK_TIME = 1000; //median of the --load players, a move takes 0.2 to 10 times it
+    public static final int LOAD_TICK = 10; //of the --load timers
+    public static final int LOAD_REPORT_INTERVAL = 1000;
+    public static final int PERFT_DEPTH = 4; //of the --perft check, each position has counts to 5 or 6
+    //mapped read only and shared by all games, a missing file turns the lookup off
+    public static final String BOOK_FILE_NAME = System.getProperty("chessServer.book", "book.bin");
+    public static final String TABLEBASE_FILE_NAME = System.getProperty("chessServer.tablebase", "tablebase.bin");
+    public static final int MAX_CONNECTIONS = 1 << 16; //power of two
+    public static final int WORKERS = Runtime.getRuntime().availableProcessors();
+    public static final int REACTORS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
 
     public static final String GAME_FOLDER_NAME = "data";
     public static final String GAME_FILE_EXTENSION = ".game";
+    public static final String JOURNAL_FILE_EXTENSION = ".journal";
+    public static final int JOURNAL_BUFFER_SIZE = 2 << 15;
+    public static final long JOURNAL_SEGMENT_SIZE = 4L << 20;
+    public static final int MAX_COMMIT_BATCH = 256;
+    public static final int PERSISTENCE_QUEUE_SIZE = 1024;
+    public static final Durability DURABILITY = Durability.tryParse(System.getProperty("chessServer.durability"))
+            .orElse(Durability.ACK_AFTER_FSYNC);
 
     private Settings() {
     }
@@ -17,14 +56,48 @@ public final class Settings {
         JOIN,
         MOVE,
         PRINT_STATE,
+        DISPLAY,
+        BOOK,
+        PROBE,
+        WATCH,
+        SEEK,
         EXIT,
         CLOSE; //server command
 
+        private static final Command[] VALUES = values();
+        private static final List<Optional<Command>> PARSED = new ArrayList<>(VALUES.length);
+
+        static {
+            for (final Command c : VALUES) {
+                PARSED.add(Optional.of(c));
+            }
+        }
+
         public static Optional<Command> tryParse(final String s) {
+            return s == null ? Optional.empty() : tryParse(s, 0, s.length());
+        }
+
+        //s[start, end) without a substring, the result is shared
+        public static Optional<Command> tryParse(final String s, final int start, final int end) {
+            for (final Command c : VALUES) {
+                final String name = c.name();
+                if (end - start == name.length() && s.regionMatches(true, start, name, 0, name.length())) {
+                    return PARSED.get(c.ordinal());
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    public enum Durability {
+        ACK_AFTER_FSYNC, //a response is sent once the change it reports is on disk
+        ACK_IMMEDIATELY; //a response is sent right away, a crash may lose the latest changes
+
+        public static Optional<Durability> tryParse(final String s) {
             if (s != null) {
-                for (Command c : Command.values()) {
-                    if (s.equalsIgnoreCase(c.name())) {
-                        return Optional.of(c);
+                for (Durability d : Durability.values()) {
+                    if (s.equalsIgnoreCase(d.name())) {
+                        return Optional.of(d);
                     }
                 }
             }
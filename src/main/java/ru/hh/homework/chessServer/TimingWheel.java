@@ -0,0 +1,118 @@
+package ru.hh.homework.chessServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+//hashed timing wheel: a timeout goes to the bucket of its deadline tick, further ones wait there for their round.
+//schedule and cancel are O(1), a tick walks one bucket. owned by one thread, times are in milliseconds
+class TimingWheel<T> {
+    private static final int CANCELLED = -1;
+    private static final int EXPIRING = -2;
+
+    private final Timeout<T>[] buckets; //doubly-linked lists
+    private final List<Timeout<T>> expiring;
+    private final int mask;
+    private final long tickMillis;
+    private final long start;
+    private long tick; //next tick to expire
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(final int bucketCount, final long tickMillis, final long now) {
+        checkArgument(Integer.bitCount(bucketCount) == 1, "Bucket count must be a power of two");
+        checkArgument(tickMillis > 0, "Tick must be positive");
+        this.buckets = (Timeout<T>[]) new Timeout<?>[bucketCount];
+        this.mask = bucketCount - 1;
+        this.tickMillis = tickMillis;
+        this.start = now;
+        this.expiring = new ArrayList<>();
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    //a deadline in the past expires on the next tick
+    public Timeout<T> schedule(final T payload, final long deadline) {
+        final Timeout<T> timeout = new Timeout<>(checkNotNull(payload), deadline);
+        final long ticks = Math.max((deadline - this.start + this.tickMillis - 1) / this.tickMillis, this.tick);
+        timeout.rounds = (ticks - this.tick) / this.buckets.length;
+        timeout.bucket = (int) (ticks & this.mask);
+        final Timeout<T> head = this.buckets[timeout.bucket];
+        timeout.next = head;
+        if (head != null)
+            head.previous = timeout;
+        this.buckets[timeout.bucket] = timeout;
+        ++this.size;
+        return timeout;
+    }
+
+    public void cancel(final Timeout<T> timeout) {
+        if (timeout == null || timeout.bucket == CANCELLED)
+            return;
+        if (timeout.bucket == EXPIRING) {
+            timeout.bucket = CANCELLED;
+            return;
+        }
+        if (timeout.previous != null)
+            timeout.previous.next = timeout.next;
+        else
+            this.buckets[timeout.bucket] = timeout.next;
+        if (timeout.next != null)
+            timeout.next.previous = timeout.previous;
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.bucket = CANCELLED;
+        --this.size;
+    }
+
+    //expires everything due by now; the action may schedule and cancel timeouts
+    public void advance(final long now, final Consumer<T> action) {
+        final long last = (now - this.start) / this.tickMillis;
+        while (this.tick <= last) {
+            Timeout<T> timeout = this.buckets[(int) (this.tick & this.mask)];
+            ++this.tick;
+            while (timeout != null) {
+                final Timeout<T> next = timeout.next;
+                if (timeout.rounds > 0) {
+                    --timeout.rounds;
+                } else {
+                    cancel(timeout);
+                    timeout.bucket = EXPIRING;
+                    this.expiring.add(timeout);
+                }
+                timeout = next;
+            }
+            //the expired ones are unlinked before any action runs, an action can cancel one expiring with it
+            for (final Timeout<T> expired : this.expiring) {
+                if (expired.bucket == EXPIRING) {
+                    expired.bucket = CANCELLED;
+                    action.accept(expired.payload);
+                }
+            }
+            this.expiring.clear();
+        }
+    }
+
+    public static class Timeout<T> {
+        public final T payload;
+        public final long deadline;
+        private long rounds;
+        private int bucket; //CANCELLED once expired or cancelled
+        private Timeout<T> previous;
+        private Timeout<T> next;
+
+        private Timeout(final T payload, final long deadline) {
+            this.payload = payload;
+            this.deadline = deadline;
+        }
+
+        public boolean isPending() {
+            return this.bucket >= 0;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package ru.hh.homework.chessServer;
+
+import ru.hh.homework.chessServer.game.Location;
+import ru.hh.homework.chessServer.game.Piece;
+
+import java.util.Optional;
+import java.util.UUID;
+
+//splits a request on whitespace without regex or substrings, tokens are offsets into the request body.
+//one instance per worker, reused for every request
+class Tokens {
+    private static final int MAX_TOKENS = 8;
+
+    private final int[] starts = new int[MAX_TOKENS];
+    private final int[] ends = new int[MAX_TOKENS];
+    private String line;
+    private int count;
+
+    //tokens after MAX_TOKENS are ignored, no command takes that many arguments
+    public Tokens reset(final String line) {
+        this.line = line;
+        this.count = 0;
+        int i = 0;
+        final int length = line.length();
+        while (this.count < MAX_TOKENS) {
+            while (i < length && Character.isWhitespace(line.charAt(i))) {
+                ++i;
+            }
+            if (i == length)
+                break;
+            this.starts[this.count] = i;
+            while (i < length && !Character.isWhitespace(line.charAt(i))) {
+                ++i;
+            }
+            this.ends[this.count++] = i;
+        }
+        return this;
+    }
+
+    public int count() {
+        return this.count;
+    }
+
+    public String get(final int i) {
+        return i < this.count ? this.line.substring(this.starts[i], this.ends[i]) : null;
+    }
+
+    public boolean equalsIgnoreCase(final int i, final String s) {
+        return i < this.count && this.ends[i] - this.starts[i] == s.length()
+                && this.line.regionMatches(true, this.starts[i], s, 0, s.length());
+    }
+
+    public Optional<Settings.Command> command() {
+        return this.count == 0 ? Optional.empty()
+                : Settings.Command.tryParse(this.line, this.starts[0], this.ends[0]);
+    }
+
+    //0..63 or Location.NONE
+    public int square(final int i) {
+        return i < this.count ? Location.parseSquare(this.line, this.starts[i], this.ends[i]) : Location.NONE;
+    }
+
+    public Optional<Piece> promotion(final int i) {
+        return i < this.count ? Piece.tryParsePromotion(this.line, this.starts[i], this.ends[i]) : Optional.empty();
+    }
+
+    public Optional<UUID> uuid(final int i) {
+        return i < this.count ? Utils.tryParseUUID(this.line, this.starts[i], this.ends[i]) : Optional.empty();
+    }
+}
@@ -1,41 +1,68 @@
 package ru.hh.homework.chessServer;
 
-import java.io.*;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.UUID;
 
 final class Utils {
+    private static final int UUID_LENGTH = 36;
+
     private Utils() {
     }
 
-    public static <T extends Serializable> void serialize(final T object, final Path path) {
-        try (OutputStream outputStream = Files.newOutputStream(path);
-             ObjectOutputStream oos = new ObjectOutputStream(outputStream)) {
-            oos.writeObject(object);
+    public static void write(final ByteBuffer buffer, final Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
+    }
 
-        //uses buffer
-        /*
-        try (OutputStream file = new FileOutputStream(path, false);
-             OutputStream buffer = new BufferedOutputStream(file);
-             ObjectOutput output = new ObjectOutputStream(buffer)) {
-            output.writeObject(object);
-        } catch (IOException e) {
-            System.out.println(e);
+    public static ByteBuffer read(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) == -1)
+                    break;
+            }
+            buffer.flip();
+            return buffer;
         }
-        */
     }
 
-    @SuppressWarnings("unchecked")
-    public static <T extends Serializable> T deserialize(final Path path) {
-        try (InputStream inputStream = Files.newInputStream(path);
-             ObjectInputStream ois = new ObjectInputStream(inputStream)) {
-            return (T) ois.readObject();
-        } catch (ClassNotFoundException | IOException e) {
-            e.printStackTrace();
+    public static Optional<UUID> tryParseUUID(final String s) {
+        return s == null ? Optional.empty() : tryParseUUID(s, 0, s.length());
+    }
+
+    //canonical 8-4-4-4-12 form only, parsed in place without exceptions
+    public static Optional<UUID> tryParseUUID(final CharSequence s, final int start, final int end) {
+        if (end - start != UUID_LENGTH)
+            return Optional.empty();
+        long mostSigBits = 0;
+        long leastSigBits = 0;
+        int digits = 0;
+        for (int i = 0; i < UUID_LENGTH; ++i) {
+            final char c = s.charAt(start + i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-')
+                    return Optional.empty();
+                continue;
+            }
+            final int digit = Character.digit(c, 16);
+            if (digit < 0)
+                return Optional.empty();
+            if (digits++ < 16)
+                mostSigBits = mostSigBits << 4 | digit;
+            else
+                leastSigBits = leastSigBits << 4 | digit;
         }
-        return null;
+        return Optional.of(new UUID(mostSigBits, leastSigBits));
     }
 }
@@ -0,0 +1,60 @@
+package ru.hh.homework.chessServer;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+//spectators of one game grouped by Broadcast variant, owned by the worker of the game.
+//an array is replaced on every change, so broadcasts keep referring to the old ones without copying
+class Watchers {
+    private static final int[] EMPTY = new int[0];
+
+    private final int[][] connections; //variant -> connection ids
+    private int size;
+
+    public Watchers() {
+        this.connections = new int[Broadcast.VARIANTS][];
+        Arrays.fill(this.connections, EMPTY);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public void add(final int connection, final int variant) {
+        final int[] previous = this.connections[variant];
+        final int[] next = Arrays.copyOf(previous, previous.length + 1);
+        next[previous.length] = connection;
+        this.connections[variant] = next;
+        ++this.size;
+    }
+
+    public boolean remove(final int connection) {
+        for (int variant = 0; variant < Broadcast.VARIANTS; ++variant) {
+            final int[] previous = this.connections[variant];
+            for (int i = 0; i < previous.length; ++i) {
+                if (previous[i] != connection)
+                    continue;
+                final int[] next = Arrays.copyOf(previous, previous.length - 1);
+                if (i < next.length)
+                    next[i] = previous[previous.length - 1];
+                this.connections[variant] = next;
+                --this.size;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void forEach(final IntConsumer action) {
+        for (final int[] variant : this.connections) {
+            for (final int connection : variant) {
+                action.accept(connection);
+            }
+        }
+    }
+
+    //the current arrays, valid for as long as the broadcast needs them
+    public int[][] snapshot() {
+        return this.connections.clone();
+    }
+}
@@ -0,0 +1,275 @@
+package ru.hh.homework.chessServer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+//server side of RFC 6455 for one connection: the HTTP upgrade, then masked client frames.
+//text messages carry text commands, binary messages carry BinaryFrames without the length.
+//used on the selector thread of the connection only
+class WebSocket {
+    public static final int TEXT = 1;
+    public static final int BINARY = 2;
+    public static final int CLOSE = 8;
+    public static final int PING = 9;
+    public static final int PONG = 10;
+
+    private static final int CONTINUATION = 0;
+    private static final int MAX_HEADER_SIZE = 2 + 8 + 4;
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final String BINARY_SUBPROTOCOL = "chess.binary";
+    private static final String JSON_SUBPROTOCOL = "chess.json";
+    private static final byte[] HEADERS_END = {'\r', '\n', '\r', '\n'};
+    public static final int CLOSE_NORMAL = 1000;
+    private static final int CLOSE_PROTOCOL_ERROR = 1002;
+    private static final int CLOSE_TOO_BIG = 1009;
+
+    private final Connection connection;
+    private byte[] input; //handshake request, then incomplete frames
+    private int inputLength;
+    private boolean open;
+    private boolean closed;
+
+    private final byte[] message; //payloads of a fragmented message
+    private int messageLength;
+    private int messageOpcode = CONTINUATION;
+
+    public WebSocket(final Connection connection) {
+        this.connection = checkNotNull(connection);
+        this.input = new byte[Settings.MAX_HANDSHAKE_SIZE];
+        this.message = new byte[Settings.MAX_LINE_LENGTH];
+    }
+
+    //commands received so far, null if none
+    public List<String> read(final ByteBuffer buffer) {
+        List<String> commands = null;
+        while (buffer.hasRemaining() && !this.closed) {
+            if (!this.open) {
+                handshake(buffer);
+                continue;
+            }
+            final int chunk = Math.min(buffer.remaining(), this.input.length - this.inputLength);
+            buffer.get(this.input, this.inputLength, chunk);
+            this.inputLength += chunk;
+            commands = readFrames(commands);
+        }
+        if (this.closed)
+            buffer.position(buffer.limit());
+        return commands;
+    }
+
+    //frame sent by the server, never masked
+    public static ByteBuffer frame(final int opcode, final ByteBuffer payload) {
+        final int length = payload.remaining();
+        final ByteBuffer frame = ByteBuffer.allocate(MAX_HEADER_SIZE + length);
+        frame.put((byte) (0x80 | opcode));
+        if (length < 126) {
+            frame.put((byte) length);
+        } else if (length <= 0xFFFF) {
+            frame.put((byte) 126);
+            frame.putChar((char) length);
+        } else {
+            frame.put((byte) 127);
+            frame.putLong(length);
+        }
+        frame.put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    public static ByteBuffer closeFrame(final int code) {
+        final ByteBuffer payload = ByteBuffer.allocate(2);
+        payload.putChar((char) code);
+        payload.flip();
+        return frame(CLOSE, payload);
+    }
+
+    private void handshake(final ByteBuffer buffer) {
+        while (buffer.hasRemaining() && this.inputLength < this.input.length) {
+            this.input[this.inputLength++] = buffer.get();
+            if (endsWith(this.input, this.inputLength, HEADERS_END)) {
+                upgrade(new String(this.input, 0, this.inputLength, StandardCharsets.ISO_8859_1));
+                this.inputLength = 0;
+                this.input = new byte[MAX_HEADER_SIZE + Settings.MAX_LINE_LENGTH];
+                return;
+            }
+        }
+        if (this.inputLength == this.input.length)
+            reject("431 Request Header Fields Too Large");
+    }
+
+    private void upgrade(final String request) {
+        String key = null;
+        boolean upgrade = false;
+        String subprotocol = null;
+        final String[] lines = request.split("\r\n");
+        if (!lines[0].startsWith("GET ")) {
+            reject("405 Method Not Allowed");
+            return;
+        }
+        for (int i = 1; i < lines.length; ++i) {
+            final int colon = lines[i].indexOf(':');
+            if (colon <= 0)
+                continue;
+            final String name = lines[i].substring(0, colon).trim();
+            final String value = lines[i].substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Upgrade"))
+                upgrade = value.equalsIgnoreCase("websocket");
+            else if (name.equalsIgnoreCase("Sec-WebSocket-Key"))
+                key = value;
+            else if (name.equalsIgnoreCase("Sec-WebSocket-Protocol"))
+                subprotocol = value.contains(BINARY_SUBPROTOCOL) ? BINARY_SUBPROTOCOL
+                        : value.contains(JSON_SUBPROTOCOL) ? JSON_SUBPROTOCOL : null;
+        }
+        if (!upgrade || key == null) {
+            reject("400 Bad Request");
+            return;
+        }
+        final StringBuilder response = new StringBuilder(160)
+                .append("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n")
+                .append("Sec-WebSocket-Accept: ").append(accept(key)).append("\r\n");
+        if (subprotocol != null)
+            response.append("Sec-WebSocket-Protocol: ").append(subprotocol).append("\r\n");
+        send(ByteBuffer.wrap(response.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII)));
+        this.open = true;
+        this.connection.setProtocol(BINARY_SUBPROTOCOL.equals(subprotocol)
+                ? Protocol.WEBSOCKET_BINARY : Protocol.WEBSOCKET);
+    }
+
+    private List<String> readFrames(List<String> commands) {
+        int position = 0;
+        while (!this.closed && this.inputLength - position >= 2) {
+            final int b0 = this.input[position] & 0xFF;
+            final int b1 = this.input[position + 1] & 0xFF;
+            int header = 2;
+            long length = b1 & 0x7F;
+            if (length == 126) {
+                if (this.inputLength - position < 4)
+                    break;
+                length = (this.input[position + 2] & 0xFF) << 8 | (this.input[position + 3] & 0xFF);
+                header = 4;
+            } else if (length == 127) {
+                if (this.inputLength - position < 10)
+                    break;
+                length = ByteBuffer.wrap(this.input, position + 2, 8).getLong();
+                header = 10;
+            }
+            if ((b1 & 0x80) == 0) {
+                commands = close(commands, CLOSE_PROTOCOL_ERROR);
+                break;
+            }
+            if (length > Settings.MAX_LINE_LENGTH) {
+                commands = close(commands, CLOSE_TOO_BIG);
+                break;
+            }
+            final int mask = position + header;
+            final int payload = mask + 4;
+            if (this.inputLength < payload + length)
+                break;
+            for (int i = 0; i < length; ++i) {
+                this.input[payload + i] ^= this.input[mask + (i & 3)];
+            }
+            commands = onFrame(commands, (b0 & 0x80) != 0, b0 & 0x0F, payload, (int) length);
+            position = payload + (int) length;
+        }
+        System.arraycopy(this.input, position, this.input, 0, this.inputLength - position);
+        this.inputLength -= position;
+        return commands;
+    }
+
+    private List<String> onFrame(final List<String> commands, final boolean fin, final int opcode,
+                                 final int offset, final int length) {
+        switch (opcode) {
+            case PING:
+                send(frame(PONG, ByteBuffer.wrap(this.input, offset, length)));
+                return commands;
+            case PONG:
+                return commands;
+            case CLOSE:
+                return close(commands, CLOSE_NORMAL);
+            case TEXT:
+            case BINARY:
+            case CONTINUATION:
+                if ((opcode == CONTINUATION) == (this.messageOpcode == CONTINUATION)
+                        || this.messageLength + length > this.message.length) {
+                    return close(commands, opcode == CONTINUATION ? CLOSE_PROTOCOL_ERROR : CLOSE_TOO_BIG);
+                }
+                if (opcode != CONTINUATION)
+                    this.messageOpcode = opcode;
+                System.arraycopy(this.input, offset, this.message, this.messageLength, length);
+                this.messageLength += length;
+                if (!fin)
+                    return commands;
+                final List<String> result = onMessage(commands);
+                this.messageOpcode = CONTINUATION;
+                this.messageLength = 0;
+                return result;
+            default:
+                return close(commands, CLOSE_PROTOCOL_ERROR);
+        }
+    }
+
+    private List<String> onMessage(List<String> commands) {
+        if (this.messageOpcode == BINARY)
+            return add(commands, BinaryFrames.decode(this.message, this.messageLength));
+        final String text = new String(this.message, 0, this.messageLength, StandardCharsets.UTF_8);
+        for (final String line : text.split("\r?\n")) {
+            if (!line.trim().isEmpty())
+                commands = add(commands, line);
+        }
+        return commands;
+    }
+
+    private static List<String> add(List<String> commands, final String command) {
+        if (commands == null)
+            commands = new ArrayList<>(1);
+        commands.add(command);
+        return commands;
+    }
+
+    //whichever side closes, the worker forgets the session as if the socket was closed
+    private List<String> close(final List<String> commands, final int code) {
+        this.closed = true;
+        send(closeFrame(code));
+        this.connection.enqueueClose();
+        return add(commands, Settings.Command.CLOSE.name());
+    }
+
+    private void reject(final String status) {
+        this.closed = true;
+        send(ByteBuffer.wrap(("HTTP/1.1 " + status + "\r\nConnection: close\r\nContent-Length: 0\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII)));
+        this.connection.enqueueClose();
+    }
+
+    private void send(final ByteBuffer data) {
+        this.connection.enqueue(data);
+        this.connection.reactor.requestFlush(this.connection);
+    }
+
+    private static String accept(final String key) {
+        try {
+            final MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(
+                    sha1.digest((key + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean endsWith(final byte[] data, final int length, final byte[] suffix) {
+        if (length < suffix.length)
+            return false;
+        for (int i = 0; i < suffix.length; ++i) {
+            if (data[length - suffix.length + i] != suffix[i])
+                return false;
+        }
+        return true;
+    }
+}
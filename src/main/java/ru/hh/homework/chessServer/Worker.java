@@ -1,16 +1,19 @@
 package ru.hh.homework.chessServer;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
+import com.google.common.primitives.Ints;
+import ru.hh.homework.chessServer.game.Display;
+import ru.hh.homework.chessServer.game.Engine;
 import ru.hh.homework.chessServer.game.Game;
+import ru.hh.homework.chessServer.game.Location;
 import ru.hh.homework.chessServer.game.MoveResult;
+import ru.hh.homework.chessServer.game.OpeningBook;
+import ru.hh.homework.chessServer.game.Piece;
 import ru.hh.homework.chessServer.game.Player;
 import ru.hh.homework.chessServer.game.Status;
+import ru.hh.homework.chessServer.game.Tablebase;
+import ru.hh.homework.chessServer.game.TimeControl;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.*;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -18,252 +21,689 @@ import static com.google.common.base.Preconditions.checkNotNull;
 class Worker implements Runnable {
 
     private final Server server;
-    private final BiMap<String, Player> sessions; //socket <-> player
+    private final Dispatcher dispatcher;
+    private final Engine engine;
+    private final int shard;
+    private final Sessions sessions; //connection <-> player
     private final Map<UUID, Game> games; //gameId -> game;
+    private final Map<UUID, Journal.Recovered> recovered; //gameId -> restored game not decoded yet
+    private final Map<UUID, Watchers> watchers; //gameId -> spectators
+    private final IntMap<UUID> watching; //connection -> gameId it watches
+    private final TimingWheel<Runnable> timers;
+    private final Map<UUID, TimingWheel.Timeout<Runnable>> evictions; //gameId -> eviction of a game nobody uses
+    private final Map<UUID, TimingWheel.Timeout<Runnable>> flags; //gameId -> time the side to move runs out
+    private final Persister persister;
+    private final Tokens tokens; //parser of the current request
+    private List<Journal.Record> records; //changes of the current batch
+    private List<Exchange> responses; //responses of the current batch
+    private final List<Exchange> broadcasts; //updates for watchers of the current batch
 
-    public Worker(final Server server) {
+    public Worker(final Server server, final Dispatcher dispatcher, final Engine engine, final int shard,
+                  final Journal.Recovery recovery, final Persister persister) throws IOException {
         this.server = checkNotNull(server);
-        this.sessions = HashBiMap.create();
+        this.dispatcher = checkNotNull(dispatcher);
+        this.engine = checkNotNull(engine);
+        this.shard = shard;
+        this.persister = checkNotNull(persister);
+        this.sessions = new Sessions();
         this.games = new HashMap<>();
-        loadUnFinishedGames();
+        this.recovered = new HashMap<>();
+        this.watchers = new HashMap<>();
+        this.watching = new IntMap<>();
+        this.timers = new TimingWheel<>(Settings.TIMER_BUCKETS, Settings.TIMER_TICK, System.currentTimeMillis());
+        this.evictions = new HashMap<>();
+        this.flags = new HashMap<>();
+        this.broadcasts = new ArrayList<>();
+        this.tokens = new Tokens();
+        this.records = new ArrayList<>();
+        this.responses = new ArrayList<>();
+        for (final Journal.Recovered game : recovery.games.values()) {
+            if (this.dispatcher.shardOf(game.gameId) == this.shard)
+                this.recovered.put(game.gameId, game);
+        }
+        this.persister.checkpoint(snapshots());
     }
 
     @Override
     public void run() {
         while (!Thread.interrupted()) {
             try {
-                final Exchange request = this.server.takeRequest();
-                process(request).forEach(this.server::write);
+                //everything queued so far goes to the persister as one batch, timers run at least once a tick
+                Exchange request = this.dispatcher.pollRequest(this.shard, Settings.TIMER_TICK);
+                int batch = 0;
+                while (request != null) {
+                    this.responses.addAll(process(request));
+                    if (++batch == Settings.MAX_COMMIT_BATCH)
+                        break;
+                    request = this.dispatcher.pollRequest(this.shard);
+                }
+                this.timers.advance(System.currentTimeMillis(), Runnable::run);
             } catch (Exception e) {
                 e.printStackTrace();
+            } finally {
+                submit();
+            }
+        }
+    }
+
+    private void submit() {
+        //spectators are served after the players of the batch
+        this.responses.addAll(this.broadcasts);
+        this.broadcasts.clear();
+        final List<Journal.Record> checkpoint = this.persister.takeCompactionRequest() ? snapshots() : null;
+        //the snapshots already include the changes of this batch
+        if (checkpoint != null)
+            this.records.clear();
+        if (Settings.DURABILITY == Settings.Durability.ACK_IMMEDIATELY) {
+            this.responses.forEach(this.server::write);
+            this.responses.clear();
+        }
+        if (this.records.isEmpty() && this.responses.isEmpty() && checkpoint == null)
+            return;
+        try {
+            this.persister.submit(new Persister.Batch(this.records, this.responses, checkpoint));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.responses.forEach(this.server::write);
+        } finally {
+            this.records = new ArrayList<>();
+            this.responses = new ArrayList<>();
+        }
+    }
+
+    //games that were not taken since the restart keep their original records
+    private List<Journal.Record> snapshots() {
+        final List<Journal.Record> snapshots = new ArrayList<>(this.games.size() + this.recovered.size());
+        for (final Game game : this.games.values()) {
+            snapshots.add(Journal.snapshot(game));
+        }
+        final Iterator<Journal.Recovered> iterator = this.recovered.values().iterator();
+        while (iterator.hasNext()) {
+            final Journal.Recovered game = iterator.next();
+            if (game.isFailed())
+                iterator.remove();
+            else
+                snapshots.addAll(game.records());
+        }
+        return snapshots;
+    }
+
+    private Game findGame(final UUID gameId) {
+        Game game = this.games.get(gameId);
+        if (game == null) {
+            final Journal.Recovered recovered = this.recovered.remove(gameId);
+            if (recovered != null && (game = recovered.load()) != null) {
+                this.games.put(gameId, game);
+                //goes back unless somebody joins or watches it
+                scheduleEviction(game);
+                scheduleFlag(game);
+                if (game.isEngineToMove())
+                    think(game);
             }
         }
+        return game;
     }
 
-    private List<Exchange> process(final Exchange request) {
+    List<Exchange> process(final Exchange request) {
+        if (request instanceof Pairing)
+            return paired((Pairing) request);
+        if (request instanceof EngineMove)
+            return engineMoved((EngineMove) request);
         final List<Exchange> exchanges = new ArrayList<>();
-        final String[] args = request.body.split("\\s+");
-        if (args.length > 0) {
-            final Optional<Settings.Command> commandMaybe = Settings.Command.tryParse(args[0]);
+        final Tokens args = this.tokens.reset(request.body);
+        if (args.count() > 0) {
+            final Optional<Settings.Command> commandMaybe = args.command();
             if (commandMaybe.isPresent()) {
                 switch (commandMaybe.get()) {
                     case CREATE:
-                        exchanges.add(create(request.address, args));
+                        exchanges.add(create(request.connection, args));
                         break;
                     case JOIN:
-                        exchanges.addAll(join(request.address, args));
+                        exchanges.addAll(join(request.connection, args));
+                        this.dispatcher.settle(request.connection, this.shard,
+                                this.sessions.contains(request.connection));
                         break;
                     case MOVE:
-                        exchanges.addAll(move(request.address, args));
+                        exchanges.addAll(move(request.connection, args, request.received));
                         break;
                     case PRINT_STATE:
-                        exchanges.add(printState(request.address));
+                        exchanges.add(printState(request.connection));
+                        break;
+                    case DISPLAY:
+                        exchanges.add(display(request.connection, args));
+                        break;
+                    case BOOK:
+                        exchanges.add(book(request.connection));
+                        break;
+                    case PROBE:
+                        exchanges.add(probe(request.connection));
+                        break;
+                    case WATCH:
+                        exchanges.add(watch(request.connection, args));
+                        this.dispatcher.settle(request.connection, this.shard,
+                                this.watching.containsKey(request.connection));
                         break;
                     case EXIT:
-                        exchanges.addAll(exit(request.address));
+                        exchanges.addAll(exit(request.connection));
                         break;
                     case CLOSE:
-                        close(request.address);
+                        close(request.connection);
                         return exchanges;
                 }
             }
         }
         if (exchanges.isEmpty())
-            exchanges.add(new Exchange(request.address, "Unknown command"));
+            exchanges.add(new Exchange(request.connection, "Unknown command"));
         return exchanges;
     }
 
-    private Exchange create(final String address, final String[] args) {
-        final boolean isWhite = args.length <= 1 || !Boolean.parseBoolean(args[1]);
-        final UUID gameId = UUID.randomUUID();
+    private Exchange create(final int connection, final Tokens args) {
+        boolean isWhite = true;
+        TimeControl timeControl = null;
+        int engineLevel = 0;
+        for (int i = 1; i < args.count(); ++i) {
+            if (args.equalsIgnoreCase(i, "true")) {
+                isWhite = false;
+            } else if (args.equalsIgnoreCase(i, "vs_engine")) {
+                engineLevel = Engine.DEFAULT_LEVEL;
+                final Integer level = i + 1 < args.count() ? Ints.tryParse(args.get(i + 1)) : null;
+                if (level != null) {
+                    if (level < 1 || level > Engine.MAX_LEVEL)
+                        return new Exchange(connection, String.format("Engine level is 1 to %d", Engine.MAX_LEVEL));
+                    engineLevel = level;
+                    ++i;
+                }
+            } else if (!args.equalsIgnoreCase(i, "false")) {
+                final Optional<TimeControl> timeControlMaybe = TimeControl.tryParse(args.get(i));
+                if (!timeControlMaybe.isPresent())
+                    return new Exchange(connection, "Usage 'create isWhite timeControl vs_engine level', all are "
+                            + "optional, time control is minutes+increment seconds (5+3) or days per move (3d)");
+                timeControl = timeControlMaybe.get();
+            }
+        }
+        UUID gameId;
+        do {
+            gameId = UUID.randomUUID();
+        } while (this.dispatcher.shardOf(gameId) != this.shard);
         final UUID token = UUID.randomUUID();
 
-        final Game game = new Game(gameId);
+        //the previous game of the connection is left to eviction
+        close(connection);
+        final Game game = new Game(gameId, timeControl);
         final Player player = new Player(game, token.toString(), isWhite);
         game.addPlayer(player);
-        this.sessions.forcePut(address, player);
+        this.sessions.put(connection, player);
         this.games.put(gameId, game);
+        if (engineLevel > 0) {
+            game.addPlayer(new Player(game, UUID.randomUUID().toString(), !isWhite, engineLevel));
+            game.startClock(System.currentTimeMillis());
+            scheduleFlag(game);
+            if (game.isEngineToMove())
+                think(game);
+        }
+        this.records.add(Journal.snapshot(game));
 
-        return new Exchange(address, String.format("GameId: %s\nToken: %s (use if connection fails)%s",
-                gameId, token, game.printState(isWhite)));
+        return entered(connection, String.format("GameId: %s\nToken: %s (use if connection fails)", gameId, token)
+                + (engineLevel > 0 ? String.format("\nEngine level %d", engineLevel) : ""),
+                token.toString(), game, isWhite);
     }
 
-    private List<Exchange> join(final String address, final String[] args) {
+    private List<Exchange> join(final int connection, final Tokens args) {
         final List<Exchange> exchanges = new ArrayList<>();
 
-        if (args.length <= 1) {
-            exchanges.add(new Exchange(address, "Usage 'join gameId token (optional, use if connection fails)'"));
+        if (args.count() <= 1) {
+            exchanges.add(new Exchange(connection, "Usage 'join gameId token (optional, use if connection fails)'"));
             return exchanges;
         }
-        final Optional<UUID> gameIdMaybe = tryParseUUID(args[1]);
+        final Optional<UUID> gameIdMaybe = args.uuid(1);
         if (!gameIdMaybe.isPresent()) {
-            exchanges.add(new Exchange(address, "Incorrect gameId"));
+            exchanges.add(new Exchange(connection, "Incorrect gameId"));
             return exchanges;
         }
 
         final UUID gameId = gameIdMaybe.get();
-        if (!this.games.containsKey(gameId)) {
-            exchanges.add(new Exchange(address, "Game was not found"));
+        final Game game = findGame(gameId);
+        if (game == null) {
+            exchanges.add(new Exchange(connection, "Game was not found"));
             return exchanges;
         }
+        unwatch(connection);
+        cancelEviction(gameId);
 
-        final Game game = this.games.get(gameId);
         final Player currentPlayer;
         final String token;
         if (game.onlyOnePlayer()) {
-            if (address.equals(this.sessions.inverse().get(game.getPlayerFirst()))) {
-                exchanges.add(new Exchange(address, "You are trying to play with yourself"));
+            if (connection == this.sessions.connectionOf(game.getPlayerFirst())) {
+                exchanges.add(new Exchange(connection, "You are trying to play with yourself"));
                 return exchanges;
             }
             token = UUID.randomUUID().toString();
             currentPlayer = new Player(game, token, game.getFreeColor());
             game.addPlayer(currentPlayer);
-            this.sessions.forcePut(address, currentPlayer);
+            game.startClock(System.currentTimeMillis());
+            scheduleFlag(game);
+            this.records.add(Journal.snapshot(game));
         } else {
-            if (args.length <= 2) {
-                exchanges.add(new Exchange(address, "The game has already begun, use input token to connect"));
+            if (args.count() <= 2) {
+                exchanges.add(new Exchange(connection, "The game has already begun, use input token to connect"));
                 return exchanges;
             }
-            final Optional<UUID> tokenMaybe = tryParseUUID(args[2]);
+            final Optional<UUID> tokenMaybe = args.uuid(2);
             if (!tokenMaybe.isPresent()) {
-                exchanges.add(new Exchange(address, "Incorrect token"));
+                exchanges.add(new Exchange(connection, "Incorrect token"));
                 return exchanges;
             }
 
             token = tokenMaybe.get().toString();
             final Optional<Player> currentPlayerMaybe = game.getPlayer(token, false);
             if (!currentPlayerMaybe.isPresent()) {
-                exchanges.add(new Exchange(address, "Game is inaccessible"));
+                exchanges.add(new Exchange(connection, "Game is inaccessible"));
                 return exchanges;
             }
             currentPlayer = currentPlayerMaybe.get();
-            final BiMap<Player, String> inverse = this.sessions.inverse();
-            if (address.equals(inverse.get(game.getPlayer(token, true).get()))) {
-                exchanges.add(new Exchange(address, "You are trying to play with yourself"));
+            if (connection == this.sessions.connectionOf(game.getPlayer(token, true).get())) {
+                exchanges.add(new Exchange(connection, "You are trying to play with yourself"));
                 return exchanges;
             }
-            final String oldAddress = inverse.remove(currentPlayer);
-            if (oldAddress != null) {
-                exchanges.add(new Exchange(oldAddress, Settings.Command.CLOSE.name()));
-            }
+            final int oldConnection = this.sessions.removePlayer(currentPlayer);
+            if (oldConnection != Connection.NONE)
+                exchanges.add(new Exchange(oldConnection, Settings.Command.CLOSE.name()));
         }
-        this.sessions.forcePut(address, currentPlayer);
-        exchanges.add(new Exchange(address, String.format("Token: %s (use if connection fails)%s",
-                token, game.printState(currentPlayer.isWhite))));
+        close(connection);
+        this.sessions.put(connection, currentPlayer);
+        exchanges.add(entered(connection, String.format("Token: %s (use if connection fails)", token),
+                token, game, currentPlayer.isWhite));
         return exchanges;
     }
 
-    private Optional<UUID> tryParseUUID(final String s) {
-        UUID id;
-        try {
-            id = UUID.fromString(s);
-            return Optional.of(id);
-        } catch (IllegalArgumentException e) {
-            return Optional.empty();
+    //both seekers enter the game the matchmaker made for them, the clock starts right away.
+    //a seeker may have disconnected or gone elsewhere since the pass, then the other one seeks again
+    private List<Exchange> paired(final Pairing pairing) {
+        final List<Exchange> exchanges = new ArrayList<>();
+        final boolean isWhitePresent = isPresent(pairing.white);
+        final boolean isBlackPresent = isPresent(pairing.black);
+        if (!isWhitePresent || !isBlackPresent) {
+            if (isWhitePresent)
+                seekAgain(pairing.white, pairing.whiteRating, pairing.timeControl);
+            if (isBlackPresent)
+                seekAgain(pairing.black, pairing.blackRating, pairing.timeControl);
+            return exchanges;
+        }
+        final Game game = new Game(pairing.gameId, pairing.timeControl);
+        final Player white = new Player(game, UUID.randomUUID().toString(), true);
+        final Player black = new Player(game, UUID.randomUUID().toString(), false);
+        game.addPlayer(white);
+        game.addPlayer(black);
+        this.games.put(game.id, game);
+        for (final Player player : game.getPlayers()) {
+            final int connection = player.isWhite ? pairing.white : pairing.black;
+            close(connection);
+            this.sessions.put(connection, player);
+        }
+        game.startClock(System.currentTimeMillis());
+        scheduleFlag(game);
+        this.records.add(Journal.snapshot(game));
+        for (final Player player : game.getPlayers()) {
+            exchanges.add(entered(player.isWhite ? pairing.white : pairing.black,
+                    String.format("Opponent found\nGameId: %s\nToken: %s (use if connection fails)",
+                            game.id, player.token), player.token, game, player.isWhite));
+        }
+        return exchanges;
+    }
+
+    private boolean isPresent(final int connection) {
+        return this.server.isOpen(connection) && this.dispatcher.isBound(connection, this.shard);
+    }
+
+    //back to the pool as a new seek, the matchmaker confirms it to the client
+    private void seekAgain(final int connection, final int rating, final TimeControl timeControl) {
+        this.dispatcher.dispatch(new Exchange(connection, String.format("%s %s%d", Settings.Command.SEEK.name(),
+                timeControl == null ? "" : timeControl + " ", rating)));
+    }
+
+    //reply to create, join and a pairing
+    private Exchange entered(final int connection, final String header, final String token, final Game game,
+                             final boolean isWhite) {
+        switch (this.server.protocol(connection)) {
+            case BINARY:
+            case WEBSOCKET_BINARY:
+                return new Exchange(connection, BinaryFrames.game(game.id, token, game, isWhite));
+            case WEBSOCKET:
+                return new Exchange(connection, JsonFrames.game(game, token, isWhite));
+        }
+        return new Exchange(connection, header + game.printState(isWhite, this.server.display(connection).full()));
+    }
+
+    //the position after the message as the connection wants to see it, a delta only right after a move
+    private Exchange state(final int connection, final String message, final Game game, final boolean isWhite,
+                           final boolean afterMove) {
+        switch (this.server.protocol(connection)) {
+            case BINARY:
+            case WEBSOCKET_BINARY:
+                return new Exchange(connection, BinaryFrames.state(message, game, isWhite));
+            case WEBSOCKET:
+                return new Exchange(connection, JsonFrames.state(message, game, isWhite));
         }
+        final Display display = this.server.display(connection);
+        return new Exchange(connection, message + game.printState(isWhite, afterMove ? display : display.full()));
     }
 
-    private List<Exchange> move(final String address, final String[] args) {
+    private List<Exchange> move(final int connection, final Tokens args, final long received) {
         final List<Exchange> exchanges = new ArrayList<>();
-        if (args.length <= 2) {
-            exchanges.add(new Exchange(address, "Usage 'move f7 f6'"));
+        if (args.count() <= 2) {
+            exchanges.add(new Exchange(connection, "Usage 'move f7 f6' or 'move e7 e8 n' to promote a pawn"));
             return exchanges;
         }
-        if (!this.sessions.containsKey(address)) {
-            exchanges.add(new Exchange(address, "Create or join a game before making a move"));
+        if (!this.sessions.contains(connection)) {
+            exchanges.add(new Exchange(connection, "Create or join a game before making a move"));
             return exchanges;
         }
-        final Player currentPlayer = this.sessions.get(address);
+        final Player currentPlayer = this.sessions.get(connection);
         final Game game = currentPlayer.game;
         if (game.onlyOnePlayer()) {
-            exchanges.add(new Exchange(address, "Only one player in the game"));
+            exchanges.add(new Exchange(connection, "Only one player in the game"));
             return exchanges;
         }
-        final MoveResult result = game.move(currentPlayer.token, args[1], args[2]);
+        final Optional<Piece> promotion = args.promotion(3);
+        if (args.count() > 3 && !promotion.isPresent()) {
+            exchanges.add(new Exchange(connection, "A pawn can be promoted to q, r, b or n"));
+            return exchanges;
+        }
+        final int start = args.square(1);
+        final int end = args.square(2);
+        if (start == Location.NONE || end == Location.NONE) {
+            exchanges.add(new Exchange(connection, "Start or end location is incorrect"));
+            return exchanges;
+        }
+        final MoveResult result = game.move(currentPlayer.token, start, end, promotion.orElse(null), received);
         if (result.status == Status.INCORRECT) {
-            exchanges.add(new Exchange(address, result.toString()));
+            exchanges.add(new Exchange(connection, result.toString()));
             return exchanges;
         }
-        exchanges.add(new Exchange(address, result + game.printState(currentPlayer.isWhite)));
-        final Player oppositePlayer = game.getPlayer(currentPlayer.token, true).orElse(currentPlayer);
-        final String addressOpposite = this.sessions.inverse().get(oppositePlayer);
-        exchanges.add(new Exchange(addressOpposite, result + game.printState(oppositePlayer.isWhite)));
+        return moved(game, currentPlayer, result);
+    }
+
+    private List<Exchange> engineMoved(final EngineMove request) {
+        final Game game = this.games.get(request.gameId);
+        if (game == null)
+            return new ArrayList<>();
+        if (request.reply == null)
+            return engineFailed(game);
+        final MoveResult result = game.move(request.reply, System.currentTimeMillis());
+        //a reply for a position the game has left is dropped
+        if (result.status == Status.INCORRECT)
+            return new ArrayList<>();
+        return moved(game, game.getEngine().get(), result);
+    }
+
+    //a game whose engine can't move is over as if the engine exited
+    private List<Exchange> engineFailed(final Game game) {
+        final List<Exchange> exchanges = new ArrayList<>();
+        if (!game.isEngineToMove())
+            return exchanges;
+        final Player engine = game.getEngine().get();
+        final Player player = game.getPlayer(engine.token, true).orElse(engine);
+        final int connection = this.sessions.removePlayer(player);
+        if (connection != Connection.NONE) {
+            exchanges.add(new Exchange(connection,
+                    String.format("%s fails to move. Create or join a new game", engine)));
+        }
+        broadcast(game, String.format("%s exits", engine));
+        dispose(game.id);
+        return exchanges;
+    }
+
+    //both players and the watchers see the move, then the engine takes its turn if it plays
+    private List<Exchange> moved(final Game game, final Player player, final MoveResult result) {
+        final List<Exchange> exchanges = new ArrayList<>();
+        final int connection = this.sessions.connectionOf(player);
+        final Player oppositePlayer = game.getPlayer(player.token, true).orElse(player);
+        final int connectionOpposite = this.sessions.connectionOf(oppositePlayer);
+        if (connection != Connection.NONE)
+            exchanges.add(state(connection, result.toString(), game, player.isWhite, true));
+        if (connectionOpposite != Connection.NONE)
+            exchanges.add(state(connectionOpposite, result.toString(), game, oppositePlayer.isWhite, true));
+        broadcast(game, result.toString());
 
-        if (result.status == Status.WHITE_WINS || result.status == Status.BLACK_WINS) {
-            close(address);
-            close(addressOpposite);
+        if (result.isGameOver()) {
+            if (connection != Connection.NONE)
+                close(connection);
+            if (connectionOpposite != Connection.NONE)
+                close(connectionOpposite);
             dispose(game.id);
             return exchanges;
         }
-        saveGame(game);
+        this.records.add(Journal.move(game));
+        scheduleFlag(game);
+        if (game.isEngineToMove())
+            think(game);
         return exchanges;
     }
 
-    private Exchange printState(final String address) {
-        if (!this.sessions.containsKey(address)) {
-            return new Exchange(address, "Create or join a game before printing");
+    //the search runs on the engine's threads, its move or its failure comes back to this shard as a request
+    private void think(final Game game) {
+        final UUID gameId = game.id;
+        this.engine.think(game).whenComplete((reply, error) -> {
+            if (error != null) {
+                error.printStackTrace();
+                this.dispatcher.dispatchTo(this.shard, new EngineMove(gameId));
+            } else {
+                this.dispatcher.dispatchTo(this.shard, new EngineMove(reply));
+            }
+        });
+    }
+
+    //flag falls are found by the timer, a late move is refused by the game itself
+    private void scheduleFlag(final Game game) {
+        final UUID gameId = game.id;
+        this.timers.cancel(this.flags.remove(gameId));
+        final long deadline = game.clockDeadline();
+        if (deadline != Long.MAX_VALUE)
+            this.flags.put(gameId, this.timers.schedule(() -> flagFall(gameId), deadline));
+    }
+
+    private void flagFall(final UUID gameId) {
+        this.flags.remove(gameId);
+        final Game game = findGame(gameId);
+        if (game == null)
+            return;
+        final Optional<MoveResult> result = game.flag(System.currentTimeMillis());
+        if (!result.isPresent()) {
+            scheduleFlag(game);
+            return;
+        }
+        final String message = result.get().toString();
+        for (final Player player : game.getPlayers()) {
+            final int connection = this.sessions.connectionOf(player);
+            if (connection != Connection.NONE) {
+                this.responses.add(state(connection, message, game, player.isWhite, false));
+                close(connection);
+            }
         }
-        final Player player = this.sessions.get(address);
-        return new Exchange(address, player.game.printState(player.isWhite));
+        broadcast(game, message);
+        dispose(gameId);
     }
 
-    private void dispose(UUID gameId) {
+    private Exchange printState(final int connection) {
+        final UUID watched = this.watching.get(connection);
+        if (watched != null)
+            return state(connection, "", this.games.get(watched), true, false);
+        if (!this.sessions.contains(connection)) {
+            return new Exchange(connection, "Create or join a game before printing");
+        }
+        final Player player = this.sessions.get(connection);
+        return state(connection, "", player.game, player.isWhite, false);
+    }
+
+    private Exchange display(final int connection, final Tokens args) {
+        final Optional<Display> displayMaybe = Display.tryParse(args.get(1));
+        if (!displayMaybe.isPresent())
+            return new Exchange(connection, "Usage 'display board', 'display fen' or 'display delta'");
+        final Display display = displayMaybe.get();
+        this.server.setDisplay(connection, display);
+        final UUID watched = this.watching.get(connection);
+        if (watched != null) {
+            final Watchers watchers = this.watchers.get(watched);
+            watchers.remove(connection);
+            watchers.add(connection, Broadcast.variantOf(this.server.protocol(connection), display.full()));
+        }
+        final Player player = this.sessions.get(connection);
+        if (player == null)
+            return new Exchange(connection, "Display: " + display.name().toLowerCase());
+        return new Exchange(connection, "Display: " + display.name().toLowerCase()
+                + player.game.printState(player.isWhite, display.full()));
+    }
+
+    private Exchange book(final int connection) {
+        final Game game = currentGame(connection);
+        if (game == null)
+            return new Exchange(connection, "Create, join or watch a game before looking it up");
+        final Optional<OpeningBook> book = this.engine.getBook();
+        if (!book.isPresent())
+            return new Exchange(connection, "There is no opening book");
+        final String moves = book.get().describe(game);
+        return new Exchange(connection, moves.isEmpty() ? "The position is not in the book" : "Book: " + moves);
+    }
+
+    private Exchange probe(final int connection) {
+        final Game game = currentGame(connection);
+        if (game == null)
+            return new Exchange(connection, "Create, join or watch a game before looking it up");
+        final Optional<Tablebase> tablebase = this.engine.getTablebase();
+        if (!tablebase.isPresent())
+            return new Exchange(connection, "There is no tablebase");
+        final String verdict = tablebase.get().describe(game);
+        return new Exchange(connection, verdict.isEmpty() ? "The position is not in the tablebase"
+                : "Tablebase: " + verdict);
+    }
+
+    //the watched or played game, null if there is none
+    private Game currentGame(final int connection) {
+        final UUID watched = this.watching.get(connection);
+        if (watched != null)
+            return this.games.get(watched);
+        final Player player = this.sessions.get(connection);
+        return player == null ? null : player.game;
+    }
+
+    private Exchange watch(final int connection, final Tokens args) {
+        if (args.count() <= 1)
+            return new Exchange(connection, "Usage 'watch gameId'");
+        final Optional<UUID> gameIdMaybe = args.uuid(1);
+        if (!gameIdMaybe.isPresent())
+            return new Exchange(connection, "Incorrect gameId");
+        final Game game = findGame(gameIdMaybe.get());
+        if (game == null)
+            return new Exchange(connection, "Game was not found");
+
+        //a game the connection plays is left as with join, wherever it is
+        close(connection);
+        cancelEviction(game.id);
+        Watchers watchers = this.watchers.get(game.id);
+        if (watchers == null) {
+            watchers = new Watchers();
+            this.watchers.put(game.id, watchers);
+        }
+        watchers.add(connection, Broadcast.variantOf(this.server.protocol(connection),
+                this.server.display(connection).full()));
+        this.watching.put(connection, game.id);
+        return state(connection, String.format("Watching %s", game.id), game, true, false);
+    }
+
+    private void unwatch(final int connection) {
+        final UUID gameId = this.watching.remove(connection);
+        if (gameId == null)
+            return;
+        final Watchers watchers = this.watchers.get(gameId);
+        watchers.remove(connection);
+        if (watchers.size() == 0)
+            this.watchers.remove(gameId);
+        final Game game = this.games.get(gameId);
+        if (game != null)
+            scheduleEviction(game);
+    }
+
+    //a game without connected players and watchers leaves memory after GAME_IDLE_TIMEOUT,
+    //its journal records stay and it is decoded again when somebody comes back
+    private void scheduleEviction(final Game game) {
+        if (!isAbandoned(game))
+            return;
+        final UUID gameId = game.id;
+        cancelEviction(gameId);
+        this.evictions.put(gameId, this.timers.schedule(() -> evict(gameId),
+                System.currentTimeMillis() + Settings.GAME_IDLE_TIMEOUT));
+    }
+
+    private void cancelEviction(final UUID gameId) {
+        this.timers.cancel(this.evictions.remove(gameId));
+    }
+
+    private boolean isAbandoned(final Game game) {
+        if (this.watchers.containsKey(game.id))
+            return false;
+        for (final Player player : game.getPlayers()) {
+            if (this.sessions.connectionOf(player) != Connection.NONE)
+                return false;
+        }
+        return true;
+    }
+
+    private void evict(final UUID gameId) {
+        this.evictions.remove(gameId);
+        final Game game = this.games.get(gameId);
+        if (game == null || !isAbandoned(game))
+            return;
         this.games.remove(gameId);
-        try {
-            Files.deleteIfExists(Paths.get(String.format("%s/%s%s",
-                    Settings.GAME_FOLDER_NAME, gameId, Settings.GAME_FILE_EXTENSION)));
-        } catch (IOException e) {
-            e.printStackTrace();
+        this.recovered.put(gameId, new Journal.Recovered(Journal.snapshot(game)));
+    }
+
+    //each encoding is made once however many watchers there are
+    private void broadcast(final Game game, final String message) {
+        final Watchers watchers = this.watchers.get(game.id);
+        if (watchers != null)
+            this.broadcasts.add(Broadcast.of(this.server, watchers.snapshot(), message, game));
+    }
+
+    private void dispose(UUID gameId) {
+        if (this.games.remove(gameId) != null)
+            this.records.add(Journal.dispose(gameId));
+        cancelEviction(gameId);
+        this.timers.cancel(this.flags.remove(gameId));
+        //watchers stay connected and may watch another game
+        final Watchers watchers = this.watchers.remove(gameId);
+        if (watchers != null) {
+            watchers.forEach(this.watching::remove);
         }
     }
 
-    private void close(final String address) {
-        this.sessions.remove(address);
-        //warn! tokens and games aren't removed so that they can be restored later
+    private void close(final int connection) {
+        unwatch(connection);
+        final Player player = this.sessions.remove(connection);
+        if (player != null)
+            scheduleEviction(player.game);
+        //tokens stay so that the player can come back, an abandoned game is evicted later
     }
 
-    private List<Exchange> exit(final String address) {
+    private List<Exchange> exit(final int connection) {
         final List<Exchange> exchanges = new ArrayList<>();
-        exchanges.add(new Exchange(address, Settings.Command.CLOSE.name()));
+        exchanges.add(new Exchange(connection, Settings.Command.CLOSE.name()));
+        unwatch(connection);
 
-        if (!this.sessions.containsKey(address))
+        if (!this.sessions.contains(connection))
             return exchanges;
 
-        final Player currentPlayer = this.sessions.remove(address);
-        exchanges.add(new Exchange(address, "You have left the game"));
+        final Player currentPlayer = this.sessions.remove(connection);
+        exchanges.add(new Exchange(connection, "You have left the game"));
         final Game game = currentPlayer.game;
+        broadcast(game, String.format("%s exits", currentPlayer));
         dispose(game.id);
 
         final Player oppositePlayer = game.getPlayer(currentPlayer.token, true).orElse(currentPlayer);
-        final String addressOpposite = this.sessions.inverse().remove(oppositePlayer);
-
-        if (addressOpposite != null && !address.equals(addressOpposite)) {
-            exchanges.add(new Exchange(addressOpposite,
+        final int connectionOpposite = this.sessions.removePlayer(oppositePlayer);
+        if (connectionOpposite != Connection.NONE && connection != connectionOpposite) {
+            exchanges.add(new Exchange(connectionOpposite,
                     String.format("%s exits. Create or join a new game", currentPlayer)));
         }
         return exchanges;
     }
-
-
-    private void loadUnFinishedGames() {
-        try {
-            final File directory = new File(Settings.GAME_FOLDER_NAME);
-            if (!directory.mkdir()) {
-                for (final File file : directory.listFiles()) {
-                    if (file.isFile() && file.getName().endsWith(Settings.GAME_FILE_EXTENSION)) {
-                        final Game game = Utils.deserialize(Paths.get(file.getPath()));
-                        if (game != null && game.id != null)
-                            games.put(game.id, game);
-                    }
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void saveGame(final Game game) {
-        Utils.serialize(game, Paths.get(String.format("%s/%s%s",
-                Settings.GAME_FOLDER_NAME, game.id, Settings.GAME_FILE_EXTENSION)));
-    }
 }
@@ -0,0 +1,112 @@
+package ru.hh.homework.chessServer.game;
+
+//square = rank * 8 + file, a1 = 0, h8 = 63
+final class Bitboards {
+    public static final long RANK_1 = 0xFFL;
+    public static final long RANK_8 = RANK_1 << 56;
+
+    private static final long[] KNIGHT_ATTACKS = new long[64];
+    private static final long[] KING_ATTACKS = new long[64];
+    private static final long[][] PAWN_ATTACKS = new long[2][64];
+
+    //classical ray attacks, directions 0..3 increase the square index, 4..7 decrease it
+    private static final int[] RANK_STEPS = {1, 0, 1, 1, -1, 0, -1, -1};
+    private static final int[] FILE_STEPS = {0, 1, 1, -1, 0, -1, -1, 1};
+    private static final long[][] RAYS = new long[8][64];
+
+    private static final int NORTH = 0, EAST = 1, NORTH_EAST = 2, NORTH_WEST = 3;
+    private static final int SOUTH = 4, WEST = 5, SOUTH_WEST = 6, SOUTH_EAST = 7;
+
+    static {
+        final int[][] knightSteps = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+        for (int square = 0; square < 64; ++square) {
+            final int rank = rank(square);
+            final int file = file(square);
+            for (final int[] step : knightSteps) {
+                KNIGHT_ATTACKS[square] |= bit(rank + step[0], file + step[1]);
+            }
+            for (int dr = -1; dr <= 1; ++dr) {
+                for (int df = -1; df <= 1; ++df) {
+                    if (dr != 0 || df != 0)
+                        KING_ATTACKS[square] |= bit(rank + dr, file + df);
+                }
+            }
+            PAWN_ATTACKS[Board.WHITE][square] = bit(rank + 1, file - 1) | bit(rank + 1, file + 1);
+            PAWN_ATTACKS[Board.BLACK][square] = bit(rank - 1, file - 1) | bit(rank - 1, file + 1);
+            for (int direction = 0; direction < 8; ++direction) {
+                int r = rank + RANK_STEPS[direction];
+                int f = file + FILE_STEPS[direction];
+                while (isOnBoard(r, f)) {
+                    RAYS[direction][square] |= 1L << square(r, f);
+                    r += RANK_STEPS[direction];
+                    f += FILE_STEPS[direction];
+                }
+            }
+        }
+    }
+
+    private Bitboards() {
+    }
+
+    public static int square(final int rank, final int file) {
+        return rank * 8 + file;
+    }
+
+    public static int rank(final int square) {
+        return square >>> 3;
+    }
+
+    public static int file(final int square) {
+        return square & 7;
+    }
+
+    public static long knightAttacks(final int square) {
+        return KNIGHT_ATTACKS[square];
+    }
+
+    public static long kingAttacks(final int square) {
+        return KING_ATTACKS[square];
+    }
+
+    public static long pawnAttacks(final int color, final int square) {
+        return PAWN_ATTACKS[color][square];
+    }
+
+    public static long rookAttacks(final int square, final long occupied) {
+        return positiveRay(NORTH, square, occupied) | positiveRay(EAST, square, occupied)
+                | negativeRay(SOUTH, square, occupied) | negativeRay(WEST, square, occupied);
+    }
+
+    public static long bishopAttacks(final int square, final long occupied) {
+        return positiveRay(NORTH_EAST, square, occupied) | positiveRay(NORTH_WEST, square, occupied)
+                | negativeRay(SOUTH_WEST, square, occupied) | negativeRay(SOUTH_EAST, square, occupied);
+    }
+
+    public static long queenAttacks(final int square, final long occupied) {
+        return rookAttacks(square, occupied) | bishopAttacks(square, occupied);
+    }
+
+    private static long positiveRay(final int direction, final int square, final long occupied) {
+        long attacks = RAYS[direction][square];
+        final long blockers = attacks & occupied;
+        if (blockers != 0)
+            attacks ^= RAYS[direction][Long.numberOfTrailingZeros(blockers)];
+        return attacks;
+    }
+
+    private static long negativeRay(final int direction, final int square, final long occupied) {
+        long attacks = RAYS[direction][square];
+        final long blockers = attacks & occupied;
+        if (blockers != 0)
+            attacks ^= RAYS[direction][63 - Long.numberOfLeadingZeros(blockers)];
+        return attacks;
+    }
+
+    private static boolean isOnBoard(final int rank, final int file) {
+        return rank >= 0 && rank < Board.ROWS && file >= 0 && file < Board.COLUMNS;
+    }
+
+    private static long bit(final int rank, final int file) {
+        return isOnBoard(rank, file) ? 1L << square(rank, file) : 0;
+    }
+}
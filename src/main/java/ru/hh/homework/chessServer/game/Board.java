@@ -1,150 +1,621 @@
 package ru.hh.homework.chessServer.game;
 
-import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.function.Predicate;
+import com.google.common.primitives.Ints;
 
-import static com.google.common.base.Preconditions.checkState;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Optional;
 
-class Board implements Serializable {
+class Board {
     public static final int ROWS = 8;
     public static final int COLUMNS = 8;
+    public static final int MAX_MOVES = 256;
 
-    private static final Map<String, Predicate<Movement>> rules =
-            new HashMap<String, Predicate<Movement>>() {{
-                put(Piece.BISHOP.abbr, m -> Math.abs(m.start.x - m.end.x) == Math.abs(m.start.y - m.end.y));
-                put(Piece.KING.abbr, m -> Math.abs(m.end.x - m.start.x) <= 1 && Math.abs(m.end.y - m.start.y) <= 1);
-                put(Piece.KNIGHT.abbr, m -> Math.abs((m.end.x - m.start.x) * (m.end.y - m.start.y)) == 2);
-                put(Piece.QUEEN.abbr, m -> m.end.x == m.start.x || m.end.y == m.start.y
-                        || Math.abs(m.start.x - m.end.x) == Math.abs(m.start.y - m.end.y));
-                put(Piece.ROOK.abbr, m -> m.end.x == m.start.x || m.end.y == m.start.y);
-                put(Piece.PAWN.abbr, m -> {
-                    final int direction = m.isWhite ? 1 : -1;
-                    return m.isCapture && m.end.x == m.start.x + direction && (Math.abs(m.start.y - m.end.y) == 1)
-                            || !m.isCapture && m.start.y == m.end.y
-                            && (m.end.x == m.start.x + direction || m.end.x == m.start.x + 2 * direction
-                            && m.start.x == (ROWS - 1 + direction) % (ROWS - 1));
-                });
-            }};
-    private final char[][] state;
+    static final int WHITE = 0;
+    static final int BLACK = 1;
+    static final int NO_SQUARE = -1;
+
+    private static final Piece[] PIECES = Piece.values();
+    private static final int NO_PIECE = -1;
+    private static final Piece[] BACK_RANK = {Piece.ROOK, Piece.KNIGHT, Piece.BISHOP, Piece.QUEEN,
+            Piece.KING, Piece.BISHOP, Piece.KNIGHT, Piece.ROOK};
+
+    private static final int WHITE_KING_SIDE = 1;
+    private static final int WHITE_QUEEN_SIDE = 2;
+    private static final int BLACK_KING_SIDE = 4;
+    private static final int BLACK_QUEEN_SIDE = 8;
+    private static final int[] CASTLING_MASK = new int[ROWS * COLUMNS];
+    private static final long LIGHT_SQUARES = 0x55AA55AA55AA55AAL;
+    private static final int FIFTY_MOVES = 100;
+    private static final char[][] TEMPLATES = new char[2][];
+    private static final int[][] CELLS = new int[2][ROWS * COLUMNS]; //square -> offset of its cell in the template
+
+    static {
+        Arrays.fill(CASTLING_MASK, 15);
+        CASTLING_MASK[Bitboards.square(0, 0)] &= ~WHITE_QUEEN_SIDE;
+        CASTLING_MASK[Bitboards.square(0, 4)] &= ~(WHITE_KING_SIDE | WHITE_QUEEN_SIDE);
+        CASTLING_MASK[Bitboards.square(0, 7)] &= ~WHITE_KING_SIDE;
+        CASTLING_MASK[Bitboards.square(7, 0)] &= ~BLACK_QUEEN_SIDE;
+        CASTLING_MASK[Bitboards.square(7, 4)] &= ~(BLACK_KING_SIDE | BLACK_QUEEN_SIDE);
+        CASTLING_MASK[Bitboards.square(7, 7)] &= ~BLACK_KING_SIDE;
+        TEMPLATES[WHITE] = template(true, CELLS[WHITE]);
+        TEMPLATES[BLACK] = template(false, CELLS[BLACK]);
+    }
+
+    //index of a piece = color * 6 + piece ordinal
+    private final long[] pieces = new long[2 * PIECES.length];
+    private final long[] colors = new long[2];
+    private long occupied;
+    private final byte[] squares = new byte[ROWS * COLUMNS];
+
+    //kept up to date by put/remove so that game-end queries don't scan the board
+    private final int[] counts = new int[2 * PIECES.length];
+    private final int[] material = new int[2];
+    private final int[] kingSquares = {NO_SQUARE, NO_SQUARE};
+
+    private int sideToMove = WHITE;
+    private int castlingRights = WHITE_KING_SIDE | WHITE_QUEEN_SIDE | BLACK_KING_SIDE | BLACK_QUEEN_SIDE;
+    private int enPassantSquare = NO_SQUARE; //set only if a pawn can take en passant
+    private int halfmoveClock;
+    private long key;
+
+    //undo stack: move | moving piece << 17 | (captured piece + 1) << 21,
+    //castling rights | (en passant square + 1) << 4 | halfmove clock << 11 and the position key before the move
+    private int[] history = new int[64];
+    private int[] states = new int[64];
+    private long[] keys = new long[64];
+    private int ply;
+
+    private int[] replies;
+
+    //rendered boards are reused until the position changes
+    private int version;
+    private final String[] printed = new String[2];
+    private final int[] printedVersions = {-1, -1};
 
     public Board() {
-        this.state = new char[][]{
-                {'R', 'N', 'B', 'Q', 'K', 'B', 'N', 'R'},
-                {'P', 'P', 'P', 'P', 'P', 'P', 'P', 'P'},
-                {' ', ' ', ' ', ' ', ' ', ' ', ' ', ' '},
-                {' ', ' ', ' ', ' ', ' ', ' ', ' ', ' '},
-                {' ', ' ', ' ', ' ', ' ', ' ', ' ', ' '},
-                {' ', ' ', ' ', ' ', ' ', ' ', ' ', ' '},
-                {'p', 'p', 'p', 'p', 'p', 'p', 'p', 'p'},
-                {'r', 'n', 'b', 'q', 'k', 'b', 'n', 'r'}
-        };
+        Arrays.fill(this.squares, (byte) NO_PIECE);
+        for (int file = 0; file < COLUMNS; ++file) {
+            put(index(WHITE, BACK_RANK[file]), Bitboards.square(0, file));
+            put(index(WHITE, Piece.PAWN), Bitboards.square(1, file));
+            put(index(BLACK, Piece.PAWN), Bitboards.square(ROWS - 2, file));
+            put(index(BLACK, BACK_RANK[file]), Bitboards.square(ROWS - 1, file));
+        }
+        this.key ^= Zobrist.castling(this.castlingRights);
+    }
+
+    //an independent board with the same history, for a search on another thread
+    Board copy() {
+        final Board copy = new Board();
+        for (int i = 0; i < this.ply; ++i) {
+            copy.makeMove(moveAt(i));
+        }
+        return copy;
     }
 
-    private boolean isEmpty(int x, int y) {
-        final char piece = this.state[x][y];
-        return isEmpty(piece);
+    private static int index(final int color, final Piece piece) {
+        return color * PIECES.length + piece.ordinal();
     }
 
-    private boolean isEmpty(final char piece) {
-        return piece == ' ';
+    private static int colorOf(final int index) {
+        return index < PIECES.length ? WHITE : BLACK;
     }
 
-    private boolean isWhite(final char piece) {
-        return Character.isLetter(piece) && Character.isUpperCase(piece);
+    private static Piece pieceOf(final int index) {
+        return PIECES[index % PIECES.length];
     }
 
-    private boolean isBlack(final char piece) {
-        return Character.isLetter(piece) && !isWhite(piece);
+    private static int color(final boolean isWhite) {
+        return isWhite ? WHITE : BLACK;
     }
 
     private String getColorName(final boolean isWhite) {
         return isWhite ? "White" : "Black";
     }
 
-    public MoveResult move(final boolean isWhite, final Location start, final Location end) {
-        final char initial = this.state[start.x][start.y];
-        if (isEmpty(initial) || isWhite(initial) != isWhite)
+    public boolean isWhiteToMove() {
+        return this.sideToMove == WHITE;
+    }
+
+    public long getKey() {
+        return this.key;
+    }
+
+    public MoveResult move(final boolean isWhite, final Location start, final Location end, final Piece promotion) {
+        return move(isWhite, start.square, end.square, promotion);
+    }
+
+    //promotion is null for the default queen
+    public MoveResult move(final boolean isWhite, final int from, final int to, final Piece promotion) {
+        final int color = color(isWhite);
+        final int initial = this.squares[from];
+        if (initial == NO_PIECE || colorOf(initial) != color)
             return new MoveResult(
                     String.format("No %s piece at the initial square", getColorName(isWhite)),
                     Status.INCORRECT);
 
-        final char targetPiece = this.state[end.x][end.y];
-        final boolean isCapture = !isEmpty(targetPiece);
-        if (isCapture && isWhite(targetPiece) == isWhite) {
+        final int targetPiece = this.squares[to];
+        if (targetPiece != NO_PIECE && colorOf(targetPiece) == color) {
             return new MoveResult("The target position is occupied with a piece of your own color",
                     Status.INCORRECT);
         }
-        final Movement movement;
-        try {
-            movement = new Movement(isCapture, isWhite, start, end);
-        } catch (Exception e) {
-            return new MoveResult("Current position and target position are equal", Status.INCORRECT);
+        final Piece piece = pieceOf(initial);
+        final long target = 1L << to;
+        final int move;
+        if (piece == Piece.KING && Math.abs(Bitboards.file(to) - Bitboards.file(from)) == 2
+                && Bitboards.rank(to) == Bitboards.rank(from)) {
+            move = Move.castling(from, to);
+            if (!canCastle(color, from, to))
+                return new MoveResult("Castling is not possible", Status.INCORRECT);
+        } else {
+            final boolean isEnPassant = piece == Piece.PAWN && to == this.enPassantSquare;
+            final boolean isCapture = targetPiece != NO_PIECE || isEnPassant;
+            if ((reach(piece, color, from, isCapture, 0) & target) == 0) {
+                return new MoveResult("The piece cannot move to the target square", Status.INCORRECT);
+            }
+            if ((reach(piece, color, from, isCapture, this.occupied) & target) == 0) {
+                return new MoveResult("The path from the initial to the target square is not free.",
+                        Status.INCORRECT);
+            }
+            if (isEnPassant)
+                move = Move.enPassant(from, to);
+            else if (piece == Piece.PAWN && (target & (Bitboards.RANK_1 | Bitboards.RANK_8)) != 0)
+                move = Move.of(from, to, promotion == null ? Piece.QUEEN : promotion);
+            else
+                move = Move.of(from, to);
         }
-        if (!(rules.getOrDefault(String.valueOf(Character.toLowerCase(initial)), m -> false).test(movement))) {
-            return new MoveResult("The piece cannot move to the target square", Status.INCORRECT);
+
+        final boolean wasInCheck = isInCheck(isWhite);
+        makeMove(move);
+        if (isInCheck(isWhite)) {
+            unmakeMove();
+            return new MoveResult(wasInCheck ? "Your king is in check"
+                    : "The move leaves your king in check", Status.INCORRECT);
         }
+        return new MoveResult(describe(isWhite, move, initial, targetPiece), Status.CORRECT, from, to);
+    }
+
+    private String describe(final boolean isWhite, final int move, final int initial, final int targetPiece) {
+        final String action;
+        if (Move.isCastling(move))
+            action = Bitboards.file(Move.to(move)) > Bitboards.file(Move.from(move))
+                    ? "castles king side" : "castles queen side";
+        else if (Move.isEnPassant(move))
+            action = "captures (" + getPieceRepresentation(index(1 - color(isWhite), Piece.PAWN)) + ") en passant";
+        else if (targetPiece != NO_PIECE)
+            action = "captures (" + getPieceRepresentation(targetPiece) + ")";
+        else
+            action = "moves";
+        final int promotion = Move.promotion(move);
+        return String.format("%s (%s) %s: '%s - %s'",
+                getColorName(isWhite),
+                getPieceRepresentation(initial),
+                action,
+                Location.nameOf(Move.from(move)), Location.nameOf(Move.to(move)))
+                + (promotion != Move.NO_PROMOTION
+                ? " with promotion to " + PIECES[promotion].name().toLowerCase() : "")
+                + (isInCheck(!isWhite) ? ". Check" : "");
+    }
 
-        if (!(isInstanceOf(Piece.KNIGHT, initial)
-                || isFreePath(movement.start, movement.end))) {
-            return new MoveResult("The path from the initial to the target square is not free.", Status.INCORRECT);
+    //squares the piece reaches from the square, pawns distinguish pushes and captures
+    private long reach(final Piece piece, final int color, final int from, final boolean isCapture,
+                       final long occupied) {
+        switch (piece) {
+            case KNIGHT:
+                return Bitboards.knightAttacks(from);
+            case KING:
+                return Bitboards.kingAttacks(from);
+            case BISHOP:
+                return Bitboards.bishopAttacks(from, occupied);
+            case ROOK:
+                return Bitboards.rookAttacks(from, occupied);
+            case QUEEN:
+                return Bitboards.queenAttacks(from, occupied);
+            case PAWN:
+                return isCapture ? Bitboards.pawnAttacks(color, from) : pawnPushes(color, from, occupied);
+            default:
+                return 0;
         }
-        //todo castling etc
+    }
 
-        this.state[movement.end.x][movement.end.y] = initial;
-        this.state[movement.start.x][movement.start.y] = ' ';
+    private long pawnPushes(final int color, final int from, final long occupied) {
+        final int direction = color == WHITE ? 8 : -8;
+        final int single = from + direction;
+        if (single < 0 || single >= 64 || (occupied & 1L << single) != 0)
+            return 0;
+        final int startRank = color == WHITE ? 1 : ROWS - 2;
+        final int twice = single + direction;
+        if (Bitboards.rank(from) == startRank && (occupied & 1L << twice) == 0)
+            return 1L << single | 1L << twice;
+        return 1L << single;
+    }
 
-        boolean withPromotion = tryPromotion(movement, initial);
-        return new MoveResult(
-                movement.getDescription(getPieceRepresentation(initial), getPieceRepresentation(targetPiece))
-                        + (withPromotion ? " with promotion to queen" : ""), Status.CORRECT);
+    //the king doesn't leave, cross or land on an attacked square, the destination is checked by the caller
+    private boolean canCastle(final int color, final int from, final int to) {
+        final int homeRank = color == WHITE ? 0 : ROWS - 1;
+        if (from != Bitboards.square(homeRank, 4))
+            return false;
+        final boolean kingSide = to > from;
+        final int right = color == WHITE
+                ? (kingSide ? WHITE_KING_SIDE : WHITE_QUEEN_SIDE)
+                : (kingSide ? BLACK_KING_SIDE : BLACK_QUEEN_SIDE);
+        if ((this.castlingRights & right) == 0)
+            return false;
+        final long between = kingSide
+                ? 3L << Bitboards.square(homeRank, 5)
+                : 7L << Bitboards.square(homeRank, 1);
+        if ((this.occupied & between) != 0)
+            return false;
+        final boolean byWhite = color != WHITE;
+        final int step = kingSide ? 1 : -1;
+        return !isSquareAttacked(from, byWhite) && !isSquareAttacked(from + step, byWhite);
     }
 
-    private boolean isInstanceOf(final Piece piece, final char onBoard) {
-        return Character.toLowerCase(onBoard) == Character.toLowerCase(piece.getAbbrChar());
+    public boolean pieceExists(final boolean isWhite, final Piece piece) {
+        return this.counts[index(color(isWhite), piece)] > 0;
     }
 
-    public boolean pieceExists(final boolean isWhite, final char piece) {
-        for (int i = 0; i < ROWS; ++i) {
-            for (int j = 0; j < COLUMNS; ++j) {
-                final char currentPiece = this.state[i][j];
-                if (isWhite == isWhite(currentPiece) && piece == Character.toLowerCase(currentPiece)) {
-                    return true;
-                }
-            }
+    public int count(final boolean isWhite, final Piece piece) {
+        return this.counts[index(color(isWhite), piece)];
+    }
+
+    //sum of piece values, the king is not counted
+    public int material(final boolean isWhite) {
+        return this.material[color(isWhite)];
+    }
+
+    long pieces(final boolean isWhite, final Piece piece) {
+        return this.pieces[index(color(isWhite), piece)];
+    }
+
+    //null for an empty square
+    Piece pieceAt(final int square) {
+        final int index = this.squares[square];
+        return index == NO_PIECE ? null : pieceOf(index);
+    }
+
+    public int kingSquare(final boolean isWhite) {
+        return this.kingSquares[color(isWhite)];
+    }
+
+    public boolean hasKing(final boolean isWhite) {
+        return this.kingSquares[color(isWhite)] != NO_SQUARE;
+    }
+
+    public boolean isSquareAttacked(final int square, final boolean byWhite) {
+        final int by = color(byWhite);
+        final int other = 1 - by;
+        final long queens = this.pieces[index(by, Piece.QUEEN)];
+        return (Bitboards.pawnAttacks(other, square) & this.pieces[index(by, Piece.PAWN)]) != 0
+                || (Bitboards.knightAttacks(square) & this.pieces[index(by, Piece.KNIGHT)]) != 0
+                || (Bitboards.kingAttacks(square) & this.pieces[index(by, Piece.KING)]) != 0
+                || (Bitboards.bishopAttacks(square, this.occupied)
+                & (this.pieces[index(by, Piece.BISHOP)] | queens)) != 0
+                || (Bitboards.rookAttacks(square, this.occupied)
+                & (this.pieces[index(by, Piece.ROOK)] | queens)) != 0;
+    }
+
+    public boolean isInCheck(final boolean isWhite) {
+        final int king = this.kingSquares[color(isWhite)];
+        return king != NO_SQUARE && isSquareAttacked(king, !isWhite);
+    }
+
+    public boolean hasLegalMoves(final boolean isWhite) {
+        if (isWhite == isWhiteToMove())
+            return legalMoves().length > 0;
+        if (this.replies == null)
+            this.replies = new int[MAX_MOVES];
+        final int pseudoLegal = generatePseudoLegalMoves(isWhite, this.replies);
+        for (int i = 0; i < pseudoLegal; ++i) {
+            makeMove(this.replies[i]);
+            final boolean isLegal = !isInCheck(isWhite);
+            unmakeMove();
+            if (isLegal)
+                return true;
         }
         return false;
     }
 
-    private boolean tryPromotion(final Movement movement, char initial) {
-        if (isBlack(initial) && movement.end.x == 0 && initial == Piece.PAWN.getAbbrChar()) {
-            this.state[movement.end.x][movement.end.y] = Piece.QUEEN.getAbbrChar();
-            return true;
+    public boolean isFiftyMoveRule() {
+        return this.halfmoveClock >= FIFTY_MOVES;
+    }
+
+    //positions are compared by key back to the last capture or pawn move
+    public boolean isThreefoldRepetition() {
+        int repetitions = 1;
+        final int limit = Math.max(0, this.ply - this.halfmoveClock);
+        for (int i = this.ply - 2; i >= limit; i -= 2) {
+            if (this.keys[i] == this.key && ++repetitions == 3)
+                return true;
         }
         return false;
     }
 
-    private int sign(final int a) {
-        return a > 0 ? 1 : a < 0 ? -1 : 0;
+    //any earlier occurrence counts, a search scores the first repetition as a draw
+    boolean isRepetition() {
+        final int limit = Math.max(0, this.ply - this.halfmoveClock);
+        for (int i = this.ply - 2; i >= limit; i -= 2) {
+            if (this.keys[i] == this.key)
+                return true;
+        }
+        return false;
     }
 
-    private boolean isFreePath(final Location start, final Location end) {
-        final int stepX = sign(end.x - start.x);
-        final int stepY = sign(end.y - start.y);
-
-        int x = start.x + stepX;
-        int y = start.y + stepY;
-        while (!(x == end.x && y == end.y)) {
-            if (!isEmpty(x, y))
+    //neither side can mate: bare kings, a single minor piece or bishops on squares of one color only
+    public boolean isInsufficientMaterial() {
+        for (int color = WHITE; color <= BLACK; ++color) {
+            if (this.counts[index(color, Piece.PAWN)] > 0 || this.counts[index(color, Piece.ROOK)] > 0
+                    || this.counts[index(color, Piece.QUEEN)] > 0)
                 return false;
-            x += stepX;
-            y += stepY;
         }
-        return true;
+        final int knights = this.counts[index(WHITE, Piece.KNIGHT)] + this.counts[index(BLACK, Piece.KNIGHT)];
+        final long bishops = this.pieces[index(WHITE, Piece.BISHOP)] | this.pieces[index(BLACK, Piece.BISHOP)];
+        if (knights + Long.bitCount(bishops) <= 1)
+            return true;
+        return knights == 0 && ((bishops & LIGHT_SQUARES) == 0 || (bishops & ~LIGHT_SQUARES) == 0);
     }
 
+    public int generatePseudoLegalMoves(final boolean isWhite, final int[] moves) {
+        final int color = color(isWhite);
+        final long targets = ~this.colors[color];
+        int count = generatePawnMoves(color, moves, 0);
+        for (int type = 0; type < PIECES.length; ++type) {
+            final Piece piece = PIECES[type];
+            if (piece == Piece.PAWN)
+                continue;
+            long from = this.pieces[index(color, piece)];
+            while (from != 0) {
+                final int square = Long.numberOfTrailingZeros(from);
+                from &= from - 1;
+                long to = reach(piece, color, square, true, this.occupied) & targets;
+                while (to != 0) {
+                    moves[count++] = Move.of(square, Long.numberOfTrailingZeros(to));
+                    to &= to - 1;
+                }
+            }
+        }
+        final int king = this.kingSquares[color];
+        if (king != NO_SQUARE) {
+            if (canCastle(color, king, king + 2))
+                moves[count++] = Move.castling(king, king + 2);
+            if (canCastle(color, king, king - 2))
+                moves[count++] = Move.castling(king, king - 2);
+        }
+        return count;
+    }
+
+    //legal moves of the side to move, shared with other boards through the position cache; not to be changed
+    int[] legalMoves() {
+        final int[] cached = PositionCache.shared().legalMoves(this.key);
+        if (cached != null)
+            return cached;
+        final int[] moves = new int[MAX_MOVES];
+        final int[] legal = Arrays.copyOf(moves, generateLegalMoves(isWhiteToMove(), moves));
+        PositionCache.shared().putLegalMoves(this.key, legal);
+        return legal;
+    }
+
+    public int generateLegalMoves(final boolean isWhite, final int[] moves) {
+        final int pseudoLegal = generatePseudoLegalMoves(isWhite, moves);
+        int count = 0;
+        for (int i = 0; i < pseudoLegal; ++i) {
+            makeMove(moves[i]);
+            if (!isInCheck(isWhite))
+                moves[count++] = moves[i];
+            unmakeMove();
+        }
+        return count;
+    }
+
+    private int generatePawnMoves(final int color, final int[] moves, int count) {
+        final long enemies = this.colors[1 - color];
+        final long pawns = this.pieces[index(color, Piece.PAWN)];
+        long from = pawns;
+        while (from != 0) {
+            final int square = Long.numberOfTrailingZeros(from);
+            from &= from - 1;
+            long to = pawnPushes(color, square, this.occupied) | Bitboards.pawnAttacks(color, square) & enemies;
+            while (to != 0) {
+                final int target = Long.numberOfTrailingZeros(to);
+                to &= to - 1;
+                if (((1L << target) & (Bitboards.RANK_1 | Bitboards.RANK_8)) != 0) {
+                    moves[count++] = Move.of(square, target, Piece.QUEEN);
+                    moves[count++] = Move.of(square, target, Piece.ROOK);
+                    moves[count++] = Move.of(square, target, Piece.BISHOP);
+                    moves[count++] = Move.of(square, target, Piece.KNIGHT);
+                } else
+                    moves[count++] = Move.of(square, target);
+            }
+        }
+        if (this.enPassantSquare != NO_SQUARE) {
+            long takers = Bitboards.pawnAttacks(1 - color, this.enPassantSquare) & pawns;
+            while (takers != 0) {
+                moves[count++] = Move.enPassant(Long.numberOfTrailingZeros(takers), this.enPassantSquare);
+                takers &= takers - 1;
+            }
+        }
+        return count;
+    }
+
+    public int moveCount() {
+        return this.ply;
+    }
+
+    public int moveAt(final int index) {
+        return this.history[index] & ((1 << Move.BITS) - 1);
+    }
+
+    //restores the flags of a compact move from the piece standing on its initial square
+    public int expandMove(final int compact) {
+        final int move = Move.fromCompact(compact);
+        if (!Move.isSpecial(compact))
+            return move;
+        final int piece = this.squares[Move.from(move)];
+        if (piece != NO_PIECE && pieceOf(piece) == Piece.KING)
+            return Move.castling(Move.from(move), Move.to(move));
+        return Move.enPassant(Move.from(move), Move.to(move));
+    }
+
+    //4 bits per square: 0 for an empty square, piece index + 1 otherwise
+    public void writePosition(final ByteBuffer buffer) {
+        for (int square = 0; square < this.squares.length; square += 2) {
+            buffer.put((byte) ((this.squares[square] + 1) | (this.squares[square + 1] + 1) << 4));
+        }
+    }
+
+    public boolean positionEquals(final ByteBuffer buffer) {
+        boolean equals = true;
+        for (int square = 0; square < this.squares.length; square += 2) {
+            final byte packed = buffer.get();
+            equals &= (packed & 15) - 1 == this.squares[square] && ((packed >>> 4) & 15) - 1 == this.squares[square + 1];
+        }
+        return equals;
+    }
+
+    public void makeMove(final int move) {
+        final int from = Move.from(move);
+        final int to = Move.to(move);
+        final int moving = this.squares[from];
+        final int color = colorOf(moving);
+        final int captureSquare = Move.isEnPassant(move) ? to + (color == WHITE ? -8 : 8) : to;
+        final int captured = this.squares[captureSquare];
+
+        if (this.ply == this.history.length) {
+            this.history = Arrays.copyOf(this.history, this.ply * 2);
+            this.states = Arrays.copyOf(this.states, this.ply * 2);
+            this.keys = Arrays.copyOf(this.keys, this.ply * 2);
+        }
+        this.history[this.ply] = move | moving << Move.BITS | (captured + 1) << (Move.BITS + 4);
+        this.states[this.ply] = this.castlingRights | (this.enPassantSquare + 1) << 4 | this.halfmoveClock << 11;
+        this.keys[this.ply] = this.key;
+        ++this.ply;
+        ++this.version;
+
+        this.key ^= Zobrist.castling(this.castlingRights);
+        if (this.enPassantSquare != NO_SQUARE)
+            this.key ^= Zobrist.enPassant(this.enPassantSquare);
+
+        if (captured != NO_PIECE)
+            remove(captured, captureSquare);
+        remove(moving, from);
+        final int promotion = Move.promotion(move);
+        put(promotion == Move.NO_PROMOTION ? moving : color * PIECES.length + promotion, to);
+        if (Move.isCastling(move)) {
+            final int rook = index(color, Piece.ROOK);
+            final boolean kingSide = to > from;
+            remove(rook, kingSide ? from + 3 : from - 4);
+            put(rook, kingSide ? from + 1 : from - 1);
+        }
+
+        this.castlingRights &= CASTLING_MASK[from] & CASTLING_MASK[to];
+        final boolean isPawn = pieceOf(moving) == Piece.PAWN;
+        this.halfmoveClock = isPawn || captured != NO_PIECE ? 0 : this.halfmoveClock + 1;
+        this.enPassantSquare = NO_SQUARE;
+        if (isPawn && Math.abs(to - from) == 16) {
+            final int passed = (from + to) / 2;
+            if ((Bitboards.pawnAttacks(color, passed) & this.pieces[index(1 - color, Piece.PAWN)]) != 0)
+                this.enPassantSquare = passed;
+        }
+
+        this.key ^= Zobrist.castling(this.castlingRights);
+        if (this.enPassantSquare != NO_SQUARE)
+            this.key ^= Zobrist.enPassant(this.enPassantSquare);
+        this.sideToMove = 1 - this.sideToMove;
+        this.key ^= Zobrist.blackToMove();
+    }
+
+    public void unmakeMove() {
+        --this.ply;
+        ++this.version;
+        final int entry = this.history[this.ply];
+        final int from = Move.from(entry);
+        final int to = Move.to(entry);
+        final int moving = (entry >>> Move.BITS) & 15;
+        final int captured = ((entry >>> (Move.BITS + 4)) & 15) - 1;
+        final int color = colorOf(moving);
+
+        remove(this.squares[to], to);
+        put(moving, from);
+        if (Move.isCastling(entry)) {
+            final int rook = index(color, Piece.ROOK);
+            final boolean kingSide = to > from;
+            remove(rook, kingSide ? from + 1 : from - 1);
+            put(rook, kingSide ? from + 3 : from - 4);
+        }
+        if (captured != NO_PIECE)
+            put(captured, Move.isEnPassant(entry) ? to + (color == WHITE ? -8 : 8) : to);
+
+        final int state = this.states[this.ply];
+        this.castlingRights = state & 15;
+        this.enPassantSquare = ((state >>> 4) & 127) - 1;
+        this.halfmoveClock = state >>> 11;
+        this.key = this.keys[this.ply];
+        this.sideToMove = 1 - this.sideToMove;
+    }
+
+    private void put(final int index, final int square) {
+        final long bit = 1L << square;
+        final int color = colorOf(index);
+        final Piece piece = pieceOf(index);
+        this.pieces[index] |= bit;
+        this.colors[color] |= bit;
+        this.occupied |= bit;
+        this.squares[square] = (byte) index;
+        this.key ^= Zobrist.piece(index, square);
+        ++this.counts[index];
+        this.material[color] += piece.value;
+        if (piece == Piece.KING)
+            this.kingSquares[color] = square;
+    }
+
+    private void remove(final int index, final int square) {
+        final long bit = ~(1L << square);
+        final int color = colorOf(index);
+        final Piece piece = pieceOf(index);
+        this.pieces[index] &= bit;
+        this.colors[color] &= bit;
+        this.occupied &= bit;
+        this.squares[square] = NO_PIECE;
+        this.key ^= Zobrist.piece(index, square);
+        --this.counts[index];
+        this.material[color] -= piece.value;
+        if (piece == Piece.KING && this.kingSquares[color] == square)
+            this.kingSquares[color] = NO_SQUARE;
+    }
+
+    //the board text only changes inside the cells, so each orientation is a template with fixed cell offsets.
+    //the same position in another game is rendered once
     public String print(final boolean isWhite) {
+        final int side = color(isWhite);
+        if (this.printedVersions[side] != this.version) {
+            final String cached = PositionCache.shared().board(this.key, isWhite);
+            if (cached != null) {
+                this.printed[side] = cached;
+                this.printedVersions[side] = this.version;
+                return cached;
+            }
+            final char[] text = TEMPLATES[side].clone();
+            final int[] cells = CELLS[side];
+            for (int square = 0; square < ROWS * COLUMNS; ++square) {
+                final int index = this.squares[square];
+                if (index == NO_PIECE)
+                    continue;
+                final char abbr = Character.toUpperCase(pieceOf(index).getAbbrChar());
+                if (colorOf(index) == BLACK) {
+                    text[cells[square]] = '*';
+                    text[cells[square] + 1] = abbr;
+                } else {
+                    text[cells[square]] = abbr;
+                }
+            }
+            this.printed[side] = new String(text);
+            this.printedVersions[side] = this.version;
+            PositionCache.shared().putBoard(this.key, isWhite, this.printed[side]);
+        }
+        return this.printed[side];
+    }
+
+    private static char[] template(final boolean isWhite, final int[] cells) {
         final StringBuilder result = new StringBuilder();
         result.append("\n   ---------------------------------\n");
         for (int i = 0; i < ROWS; ++i) {
@@ -152,10 +623,11 @@ class Board implements Serializable {
                 result.append("\n   |---+---+---+---+---+---+---+---|\n");
             }
             final int actualRow = isWhite ? ROWS - i - 1 : i;
-            result.append(String.format("%d  |", actualRow + 1));
+            result.append(actualRow + 1).append("  |");
             for (int j = 0; j < COLUMNS; ++j) {
                 final int actualColumn = isWhite ? j : COLUMNS - j - 1;
-                result.append(String.format(" %s|", getPieceRepresentation(this.state[actualRow][actualColumn])));
+                cells[Bitboards.square(actualRow, actualColumn)] = result.length() + 1;
+                result.append("   |");
             }
         }
         result.append("\n   ---------------------------------\n");
@@ -163,38 +635,178 @@ class Board implements Serializable {
             result.append("     a   b   c   d   e   f   g   h\n");
         else
             result.append("     h   g   f   e   d   c   b   a\n");
-        return result.toString();
+        return result.toString().toCharArray();
     }
 
-    private String getPieceRepresentation(char ch) {
-        if (isBlack(ch))
-            return "*" + Character.toUpperCase(ch);
-        return ch + " ";
+    public String fen() {
+        final StringBuilder result = new StringBuilder(90);
+        for (int rank = ROWS - 1; rank >= 0; --rank) {
+            int empty = 0;
+            for (int file = 0; file < COLUMNS; ++file) {
+                final int index = this.squares[Bitboards.square(rank, file)];
+                if (index == NO_PIECE) {
+                    ++empty;
+                    continue;
+                }
+                if (empty > 0)
+                    result.append(empty);
+                empty = 0;
+                result.append(fenChar(index));
+            }
+            if (empty > 0)
+                result.append(empty);
+            if (rank > 0)
+                result.append('/');
+        }
+        result.append(this.sideToMove == WHITE ? " w " : " b ");
+        if (this.castlingRights == 0)
+            result.append('-');
+        if ((this.castlingRights & WHITE_KING_SIDE) != 0)
+            result.append('K');
+        if ((this.castlingRights & WHITE_QUEEN_SIDE) != 0)
+            result.append('Q');
+        if ((this.castlingRights & BLACK_KING_SIDE) != 0)
+            result.append('k');
+        if ((this.castlingRights & BLACK_QUEEN_SIDE) != 0)
+            result.append('q');
+        result.append(' ');
+        if (this.enPassantSquare == NO_SQUARE)
+            result.append('-');
+        else
+            appendSquare(result, this.enPassantSquare);
+        return result.append(' ').append(this.halfmoveClock).append(' ').append(this.ply / 2 + 1).toString();
     }
 
-    private class Movement {
-        public final boolean isWhite;
-        public final boolean isCapture;
-        public final Location start;
-        public final Location end;
+    //a position for analysis tools like perft; its history starts there, so copy() does not apply to it
+    static Optional<Board> tryParseFen(final String fen) {
+        final String[] fields = fen.trim().split("\\s+");
+        if (fields.length < 4)
+            return Optional.empty();
+        final Board board = new Board();
+        board.clear();
+        int rank = ROWS - 1;
+        int file = 0;
+        for (final char c : fields[0].toCharArray()) {
+            if (c == '/') {
+                if (file != COLUMNS || --rank < 0)
+                    return Optional.empty();
+                file = 0;
+            } else if (c >= '1' && c <= '8') {
+                file += c - '0';
+            } else {
+                final Piece piece = pieceByAbbr(Character.toLowerCase(c));
+                if (piece == null || file >= COLUMNS)
+                    return Optional.empty();
+                board.put(index(Character.isUpperCase(c) ? WHITE : BLACK, piece), Bitboards.square(rank, file++));
+            }
+            if (file > COLUMNS)
+                return Optional.empty();
+        }
+        if (rank != 0 || file != COLUMNS || board.counts[index(WHITE, Piece.KING)] != 1
+                || board.counts[index(BLACK, Piece.KING)] != 1)
+            return Optional.empty();
 
-        public Movement(final boolean isCapture, final boolean isWhite,
-                        final Location start, final Location end) {
+        if (!fields[1].equals("w") && !fields[1].equals("b"))
+            return Optional.empty();
+        if (fields[1].equals("b")) {
+            board.sideToMove = BLACK;
+            board.key ^= Zobrist.blackToMove();
+        }
+        for (final char c : fields[2].toCharArray()) {
+            final int right = "KQkq".indexOf(c);
+            if (right < 0 && c != '-')
+                return Optional.empty();
+            if (right >= 0)
+                board.castlingRights |= 1 << right;
+        }
+        board.key ^= Zobrist.castling(board.castlingRights);
+        if (!fields[3].equals("-")) {
+            final int passed = Location.parseSquare(fields[3], 0, fields[3].length());
+            if (passed == Location.NONE)
+                return Optional.empty();
+            final int mover = 1 - board.sideToMove;
+            if ((Bitboards.pawnAttacks(mover, passed) & board.pieces[index(board.sideToMove, Piece.PAWN)]) != 0) {
+                board.enPassantSquare = passed;
+                board.key ^= Zobrist.enPassant(passed);
+            }
+        }
+        if (fields.length > 4) {
+            final Integer halfmoveClock = Ints.tryParse(fields[4]);
+            if (halfmoveClock == null || halfmoveClock < 0)
+                return Optional.empty();
+            board.halfmoveClock = halfmoveClock;
+        }
+        return Optional.of(board);
+    }
 
-            checkState(start != end, "Current position and target position are equal");
+    private void clear() {
+        for (int square = 0; square < ROWS * COLUMNS; ++square) {
+            if (this.squares[square] != NO_PIECE)
+                remove(this.squares[square], square);
+        }
+        this.castlingRights = 0;
+        this.key = 0;
+    }
 
-            this.isCapture = isCapture;
-            this.isWhite = isWhite;
-            this.start = start;
-            this.end = end;
+    //null if there is no such piece
+    private static Piece pieceByAbbr(final char abbr) {
+        for (final Piece piece : PIECES) {
+            if (piece.getAbbrChar() == abbr)
+                return piece;
         }
+        return null;
+    }
+
+    //the last move in coordinate notation like e7e8q, null before the first move
+    public String lastMove() {
+        if (this.ply == 0)
+            return null;
+        return Move.name(this.history[this.ply - 1]);
+    }
 
-        public String getDescription(final String piece, final String targetPiece) {
-            return String.format("%s (%s) %s: '%s - %s'",
-                    getColorName(this.isWhite),
-                    piece,
-                    this.isCapture ? "captures (" + targetPiece + ")" : "moves",
-                    this.start, this.end);
+    //squares changed by the last move as "e2=. e4=P", empty before the first move
+    public String delta() {
+        final StringBuilder result = new StringBuilder(32);
+        if (this.ply == 0)
+            return "";
+        final int entry = this.history[this.ply - 1];
+        final int from = Move.from(entry);
+        final int to = Move.to(entry);
+        appendChange(result, from);
+        appendChange(result, to);
+        if (Move.isCastling(entry)) {
+            final boolean kingSide = to > from;
+            appendChange(result, kingSide ? from + 3 : from - 4);
+            appendChange(result, kingSide ? from + 1 : from - 1);
+        } else if (Move.isEnPassant(entry)) {
+            appendChange(result, colorOf((entry >>> Move.BITS) & 15) == WHITE ? to - 8 : to + 8);
         }
+        return result.toString();
+    }
+
+    private void appendChange(final StringBuilder result, final int square) {
+        if (result.length() > 0)
+            result.append(' ');
+        appendSquare(result, square);
+        final int index = this.squares[square];
+        result.append('=').append(index == NO_PIECE ? '.' : fenChar(index));
+    }
+
+    private static void appendSquare(final StringBuilder result, final int square) {
+        result.append(Location.nameOf(square));
+    }
+
+    private String getPieceRepresentation(final int index) {
+        if (index == NO_PIECE)
+            return "  ";
+        final char abbr = pieceOf(index).getAbbrChar();
+        if (colorOf(index) == BLACK)
+            return "*" + Character.toUpperCase(abbr);
+        return Character.toUpperCase(abbr) + " ";
+    }
+
+    private static char fenChar(final int index) {
+        final char abbr = pieceOf(index).getAbbrChar();
+        return colorOf(index) == WHITE ? Character.toUpperCase(abbr) : abbr;
     }
 }
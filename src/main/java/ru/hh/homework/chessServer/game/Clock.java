@@ -0,0 +1,94 @@
+package ru.hh.homework.chessServer.game;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+//chess clock of a game. times are wall clock milliseconds, so a clock survives a restart;
+//the time of a move is when the server read it, not when a worker got to it
+final class Clock {
+    private final TimeControl control;
+    private final long[] remaining; //Board.WHITE, Board.BLACK -> time left at the start of the current turn
+    private long turnStart; //0 until both players are in
+
+    Clock(final TimeControl control) {
+        this.control = checkNotNull(control);
+        this.remaining = new long[]{control.baseMillis, control.baseMillis};
+    }
+
+    Clock(final TimeControl control, final long white, final long black, final long turnStart) {
+        this.control = checkNotNull(control);
+        this.remaining = new long[]{white, black};
+        this.turnStart = turnStart;
+    }
+
+    TimeControl getControl() {
+        return this.control;
+    }
+
+    boolean isRunning() {
+        return this.turnStart != 0;
+    }
+
+    long getTurnStart() {
+        return this.turnStart;
+    }
+
+    //time left at the start of the current turn
+    long getRemaining(final boolean isWhite) {
+        return this.remaining[side(isWhite)];
+    }
+
+    void start(final long now) {
+        this.turnStart = now;
+    }
+
+    long remaining(final boolean isWhite, final boolean isWhiteToMove, final long now) {
+        final long left = this.remaining[side(isWhite)];
+        if (!isRunning() || isWhite != isWhiteToMove)
+            return left;
+        return Math.max(0, left - Math.max(0, now - this.turnStart));
+    }
+
+    //Long.MAX_VALUE while the clock is stopped
+    long deadline(final boolean isWhiteToMove) {
+        return isRunning() ? this.turnStart + this.remaining[side(isWhiteToMove)] : Long.MAX_VALUE;
+    }
+
+    boolean isFlagged(final boolean isWhiteToMove, final long now) {
+        return now >= deadline(isWhiteToMove);
+    }
+
+    //the side that moved stops its time and starts the opponent's
+    void punch(final boolean isWhite, final long now) {
+        if (!isRunning())
+            return;
+        final int side = side(isWhite);
+        if (this.control.perMove) {
+            this.remaining[side] = this.control.baseMillis;
+            this.remaining[1 - side] = this.control.baseMillis;
+        } else {
+            this.remaining[side] += this.control.incrementMillis - Math.max(0, now - this.turnStart);
+        }
+        this.turnStart = Math.max(now, this.turnStart);
+    }
+
+    //2d 03:15:00, 1:05:00, 4:59, 0:08.3
+    static String format(final long millis) {
+        final long days = TimeUnit.MILLISECONDS.toDays(millis);
+        final long hours = TimeUnit.MILLISECONDS.toHours(millis) % 24;
+        final long minutes = TimeUnit.MILLISECONDS.toMinutes(millis) % 60;
+        final long seconds = TimeUnit.MILLISECONDS.toSeconds(millis) % 60;
+        if (days > 0)
+            return String.format("%dd %02d:%02d:%02d", days, hours, minutes, seconds);
+        if (hours > 0)
+            return String.format("%d:%02d:%02d", hours, minutes, seconds);
+        if (minutes == 0 && seconds < 10)
+            return String.format("0:%02d.%d", seconds, millis % 1000 / 100);
+        return String.format("%d:%02d", minutes, seconds);
+    }
+
+    private static int side(final boolean isWhite) {
+        return isWhite ? Board.WHITE : Board.BLACK;
+    }
+}
@@ -0,0 +1,26 @@
+package ru.hh.homework.chessServer.game;
+
+import java.util.Optional;
+
+//how a connection sees the position: the ascii board, a FEN line or only the squares changed by the last move
+public enum Display {
+    BOARD,
+    FEN,
+    DELTA;
+
+    //a delta is meaningless without the position it applies to
+    public Display full() {
+        return this == DELTA ? FEN : this;
+    }
+
+    public static Optional<Display> tryParse(final String s) {
+        if (s != null) {
+            for (Display d : Display.values()) {
+                if (s.equalsIgnoreCase(d.name())) {
+                    return Optional.of(d);
+                }
+            }
+        }
+        return Optional.empty();
+    }
+}
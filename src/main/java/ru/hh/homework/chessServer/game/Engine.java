@@ -0,0 +1,230 @@
+package ru.hh.homework.chessServer.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+//the computer opponent: iterative deepening alpha-beta on a copy of the game's board, run on a fork-join pool
+//of its own so that a search never holds a worker. from SPLIT_DEPTH on, the root moves after the first one are
+//searched by parallel tasks sharing the transposition table and the best score so far.
+//the tablebase and then the opening book answer before any search
+public final class Engine {
+    public static final int MAX_LEVEL = 10;
+    public static final int DEFAULT_LEVEL = 3;
+
+    private static final int SPLIT_DEPTH = 4;
+    private static final int MOVES_TO_GO = 30; //a share of the time left a move may take
+    private static final long MIN_THINK_TIME = 5;
+    private static final long FLAG_MARGIN = 100; //a search ends this long before the engine would lose on time
+    private static final int NOT_BETTER = Integer.MIN_VALUE;
+    //an analysis in the position cache: best move (17 bits) | depth (7) | 1 | score (16) << 32
+    private static final int MAX_DEPTH = 127;
+    private static final long ANALYSED = 1L << 24;
+
+    private final ForkJoinPool pool;
+    private final TranspositionTable table;
+    private final long thinkTime; //per move and level
+    private final Optional<OpeningBook> book;
+    private final Optional<Tablebase> tablebase;
+
+    public Engine(final int parallelism, final int tableBits, final long thinkTime,
+                  final Optional<OpeningBook> book, final Optional<Tablebase> tablebase) {
+        checkArgument(thinkTime > 0, "Incorrect think time");
+        this.pool = new ForkJoinPool(parallelism);
+        this.table = new TranspositionTable(tableBits);
+        this.thinkTime = thinkTime;
+        this.book = checkNotNull(book);
+        this.tablebase = checkNotNull(tablebase);
+    }
+
+    public Optional<OpeningBook> getBook() {
+        return this.book;
+    }
+
+    public Optional<Tablebase> getTablebase() {
+        return this.tablebase;
+    }
+
+    //the engine has to be to move; the board is copied right away, the game may change while the engine thinks
+    public CompletableFuture<Reply> think(final Game game) {
+        checkState(game.isEngineToMove(), "It is not the engine's turn");
+        final Player engine = game.getEngine().get();
+        final Board board = game.getBoard().copy();
+        final UUID gameId = game.id;
+        final long budget = budget(game, engine, System.currentTimeMillis());
+        final long flagAt = game.clockDeadline() == Long.MAX_VALUE ? Long.MAX_VALUE
+                : game.clockDeadline() - FLAG_MARGIN;
+        return CompletableFuture.supplyAsync(() -> {
+            //the budget counts from the start of the search, not from the time it was queued
+            final long now = System.currentTimeMillis();
+            final long end = Math.max(now + MIN_THINK_TIME, Math.min(now + budget, flagAt));
+            return search(gameId, board, engine.engineLevel,
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(end - now));
+        }, this.pool);
+    }
+
+    private long budget(final Game game, final Player engine, final long now) {
+        long budget = this.thinkTime * engine.engineLevel;
+        final TimeControl control = game.getTimeControl();
+        if (control != null && !control.perMove)
+            budget = Math.min(budget,
+                    game.remainingTime(engine.isWhite, now) / MOVES_TO_GO + control.incrementMillis / 2);
+        return Math.max(MIN_THINK_TIME, budget);
+    }
+
+    private Reply search(final UUID gameId, final Board board, final int level, final long deadline) {
+        final int[] rootMoves = board.legalMoves().clone();
+        if (rootMoves.length == 0)
+            return new Reply(gameId, board.moveCount(), Move.NONE, 0, 0);
+        final int tablebaseMove = this.tablebase.isPresent() ? this.tablebase.get().bestMove(board) : Move.NONE;
+        if (tablebaseMove != Move.NONE)
+            return new Reply(gameId, board.moveCount(), tablebaseMove, 0, 0);
+        final int bookMove = this.book.isPresent() ? this.book.get().pick(board) : Move.NONE;
+        if (bookMove != Move.NONE)
+            return new Reply(gameId, board.moveCount(), bookMove, 0, 0);
+        //another game has been here, searched at least as deep
+        final long known = PositionCache.shared().analysis(board.getKey());
+        final int knownDepth = (int) (known >>> Move.BITS) & MAX_DEPTH;
+        final int knownMove = (int) known & ((1 << Move.BITS) - 1);
+        if (knownDepth >= level + 1 && contains(rootMoves, knownMove))
+            return new Reply(gameId, board.moveCount(), knownMove, knownDepth, (short) (known >>> 32));
+        final Search main = new Search(board, this.table, deadline);
+        int best = rootMoves[0];
+        int bestScore = 0;
+        int completed = 0;
+        for (int depth = 1; depth <= level + 1; ++depth) {
+            moveToFront(rootMoves, best);
+            final AtomicInteger alpha = new AtomicInteger(main.searchMove(rootMoves[0], depth,
+                    -Search.INFINITY, Search.INFINITY));
+            if (main.isAborted())
+                break;
+            int iterationBest = rootMoves[0];
+            boolean aborted = false;
+            if (depth >= SPLIT_DEPTH && rootMoves.length > 2 && this.pool.getParallelism() > 1) {
+                final List<RootTask> tasks = new ArrayList<>();
+                final int parts = Math.min(this.pool.getParallelism(), rootMoves.length - 1);
+                for (int part = 0; part < parts; ++part) {
+                    tasks.add(new RootTask(new Search(board.copy(), this.table, deadline), rootMoves, 1 + part, parts,
+                            depth, alpha));
+                }
+                ForkJoinTask.invokeAll(tasks);
+                for (final RootTask task : tasks) {
+                    aborted |= task.search.isAborted();
+                    if (task.bestMove != Move.NONE && task.bestScore >= alpha.get())
+                        iterationBest = task.bestMove;
+                }
+            } else {
+                for (int i = 1; i < rootMoves.length && !aborted; ++i) {
+                    if (searchRootMove(main, rootMoves[i], depth, alpha) != NOT_BETTER)
+                        iterationBest = rootMoves[i];
+                    aborted = main.isAborted();
+                }
+            }
+            //an unfinished iteration may have missed a refutation of its best move
+            if (aborted)
+                break;
+            best = iterationBest;
+            bestScore = alpha.get();
+            completed = depth;
+            if (Math.abs(bestScore) > Search.MATE - Search.MAX_PLY)
+                break;
+        }
+        if (completed > knownDepth)
+            PositionCache.shared().putAnalysis(board.getKey(), best | (long) completed << Move.BITS | ANALYSED
+                    | (long) (bestScore & 0xFFFF) << 32);
+        return new Reply(gameId, board.moveCount(), best, completed, bestScore);
+    }
+
+    private static boolean contains(final int[] moves, final int move) {
+        for (final int m : moves) {
+            if (m == move)
+                return true;
+        }
+        return false;
+    }
+
+    //the score of the move if it is better than alpha, which is raised to it, NOT_BETTER otherwise
+    private static int searchRootMove(final Search search, final int move, final int depth,
+                                      final AtomicInteger alpha) {
+        final int bound = alpha.get();
+        int score = search.searchMove(move, depth, bound, bound + 1);
+        if (score > bound && !search.isAborted())
+            score = search.searchMove(move, depth, bound, Search.INFINITY);
+        if (search.isAborted() || score <= bound || alpha.accumulateAndGet(score, Math::max) != score)
+            return NOT_BETTER;
+        return score;
+    }
+
+    private static void moveToFront(final int[] moves, final int move) {
+        for (int i = 0; i < moves.length; ++i) {
+            if (moves[i] == move) {
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = move;
+                return;
+            }
+        }
+    }
+
+    //every step-th root move starting from first, so that each task gets some of the promising ones
+    private static final class RootTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Search search;
+        private final int[] moves;
+        private final int first;
+        private final int step;
+        private final int depth;
+        private final AtomicInteger alpha;
+        private int bestMove = Move.NONE;
+        private int bestScore = -Search.INFINITY;
+
+        RootTask(final Search search, final int[] moves, final int first, final int step, final int depth,
+                 final AtomicInteger alpha) {
+            this.search = search;
+            this.moves = moves;
+            this.first = first;
+            this.step = step;
+            this.depth = depth;
+            this.alpha = alpha;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = this.first; i < this.moves.length && !this.search.isAborted(); i += this.step) {
+                final int score = searchRootMove(this.search, this.moves[i], this.depth, this.alpha);
+                if (score != NOT_BETTER && score > this.bestScore) {
+                    this.bestMove = this.moves[i];
+                    this.bestScore = score;
+                }
+            }
+        }
+    }
+
+    //a found move, applied by Game.move(Reply, long) unless the game has gone on without it
+    public static final class Reply {
+        public final UUID gameId;
+        public final int depth; //of the last completed iteration
+        public final int score; //centipawns for the engine
+        final int ply; //moves made before it
+        final int move;
+
+        Reply(final UUID gameId, final int ply, final int move, final int depth, final int score) {
+            this.gameId = gameId;
+            this.ply = ply;
+            this.move = move;
+            this.depth = depth;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package ru.hh.homework.chessServer.game;
+
+//static evaluation in centipawns from the side to move: material and piece-square tables.
+//tables are written as white sees the board, rank 8 first
+final class Evaluation {
+    static final int[] VALUES = new int[Piece.values().length]; //piece ordinal -> centipawns
+
+    private static final Piece[] PIECES = Piece.values();
+    private static final int ENDGAME_MATERIAL = 26; //of both sides in Piece.value units
+    private static final int[][] TABLES = new int[PIECES.length][];
+
+    private static final int[] PAWN = {
+            0, 0, 0, 0, 0, 0, 0, 0,
+            50, 50, 50, 50, 50, 50, 50, 50,
+            10, 10, 20, 30, 30, 20, 10, 10,
+            5, 5, 10, 25, 25, 10, 5, 5,
+            0, 0, 0, 20, 20, 0, 0, 0,
+            5, -5, -10, 0, 0, -10, -5, 5,
+            5, 10, 10, -20, -20, 10, 10, 5,
+            0, 0, 0, 0, 0, 0, 0, 0};
+    private static final int[] KNIGHT = {
+            -50, -40, -30, -30, -30, -30, -40, -50,
+            -40, -20, 0, 0, 0, 0, -20, -40,
+            -30, 0, 10, 15, 15, 10, 0, -30,
+            -30, 5, 15, 20, 20, 15, 5, -30,
+            -30, 0, 15, 20, 20, 15, 0, -30,
+            -30, 5, 10, 15, 15, 10, 5, -30,
+            -40, -20, 0, 5, 5, 0, -20, -40,
+            -50, -40, -30, -30, -30, -30, -40, -50};
+    private static final int[] BISHOP = {
+            -20, -10, -10, -10, -10, -10, -10, -20,
+            -10, 0, 0, 0, 0, 0, 0, -10,
+            -10, 0, 5, 10, 10, 5, 0, -10,
+            -10, 5, 5, 10, 10, 5, 5, -10,
+            -10, 0, 10, 10, 10, 10, 0, -10,
+            -10, 10, 10, 10, 10, 10, 10, -10,
+            -10, 5, 0, 0, 0, 0, 5, -10,
+            -20, -10, -10, -10, -10, -10, -10, -20};
+    private static final int[] ROOK = {
+            0, 0, 0, 0, 0, 0, 0, 0,
+            5, 10, 10, 10, 10, 10, 10, 5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            0, 0, 0, 5, 5, 0, 0, 0};
+    private static final int[] QUEEN = {
+            -20, -10, -10, -5, -5, -10, -10, -20,
+            -10, 0, 0, 0, 0, 0, 0, -10,
+            -10, 0, 5, 5, 5, 5, 0, -10,
+            -5, 0, 5, 5, 5, 5, 0, -5,
+            0, 0, 5, 5, 5, 5, 0, -5,
+            -10, 5, 5, 5, 5, 5, 0, -10,
+            -10, 0, 5, 0, 0, 0, 0, -10,
+            -20, -10, -10, -5, -5, -10, -10, -20};
+    private static final int[] KING = {
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -20, -30, -30, -40, -40, -30, -30, -20,
+            -10, -20, -20, -20, -20, -20, -20, -10,
+            20, 20, 0, 0, 0, 0, 20, 20,
+            20, 30, 10, 0, 0, 10, 30, 20};
+    private static final int[] KING_ENDGAME = {
+            -50, -40, -30, -20, -20, -30, -40, -50,
+            -30, -20, -10, 0, 0, -10, -20, -30,
+            -30, -10, 20, 30, 30, 20, -10, -30,
+            -30, -10, 30, 40, 40, 30, -10, -30,
+            -30, -10, 30, 40, 40, 30, -10, -30,
+            -30, -10, 20, 30, 30, 20, -10, -30,
+            -30, -30, 0, 0, 0, 0, -30, -30,
+            -50, -30, -30, -30, -30, -30, -30, -50};
+
+    static {
+        VALUES[Piece.PAWN.ordinal()] = 100;
+        VALUES[Piece.KNIGHT.ordinal()] = 320;
+        VALUES[Piece.BISHOP.ordinal()] = 330;
+        VALUES[Piece.ROOK.ordinal()] = 500;
+        VALUES[Piece.QUEEN.ordinal()] = 900;
+        TABLES[Piece.PAWN.ordinal()] = PAWN;
+        TABLES[Piece.KNIGHT.ordinal()] = KNIGHT;
+        TABLES[Piece.BISHOP.ordinal()] = BISHOP;
+        TABLES[Piece.ROOK.ordinal()] = ROOK;
+        TABLES[Piece.QUEEN.ordinal()] = QUEEN;
+        TABLES[Piece.KING.ordinal()] = KING;
+    }
+
+    private Evaluation() {
+    }
+
+    static int evaluate(final Board board) {
+        final boolean isEndgame = board.material(true) + board.material(false) <= ENDGAME_MATERIAL;
+        final int score = side(board, true, isEndgame) - side(board, false, isEndgame);
+        return board.isWhiteToMove() ? score : -score;
+    }
+
+    private static int side(final Board board, final boolean isWhite, final boolean isEndgame) {
+        //a white square is looked up mirrored, since the tables start from rank 8
+        final int flip = isWhite ? 56 : 0;
+        int score = 0;
+        for (final Piece piece : PIECES) {
+            final int[] table = piece == Piece.KING && isEndgame ? KING_ENDGAME : TABLES[piece.ordinal()];
+            final int value = VALUES[piece.ordinal()];
+            long squares = board.pieces(isWhite, piece);
+            while (squares != 0) {
+                score += value + table[Long.numberOfTrailingZeros(squares) ^ flip];
+                squares &= squares - 1;
+            }
+        }
+        return score;
+    }
+}
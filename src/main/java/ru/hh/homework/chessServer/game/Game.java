@@ -1,46 +1,139 @@
 package ru.hh.homework.chessServer.game;
 
-import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 import static com.google.common.base.Preconditions.checkState;
 
-public class Game implements Serializable {
+public class Game {
     public final UUID id;
     private final List<Player> players = new ArrayList<>(2);
     private final Board board = new Board();
-    private boolean currentTurn;
+    private final Clock clock; //null for a game without time control
+    private Status status = Status.CORRECT; //CORRECT while the game goes on
 
     public Game(final UUID id) {
+        this(id, (Clock) null);
+    }
+
+    public Game(final UUID id, final TimeControl timeControl) {
+        this(id, timeControl == null ? null : new Clock(timeControl));
+    }
+
+    Game(final UUID id, final Clock clock) {
         this.id = id;
-        this.currentTurn = true; //true - white, false - black
+        this.clock = clock;
+    }
+
+    //promotion is optional, a pawn is promoted to a queen by default
+    public MoveResult move(final String login, final String fieldFrom, final String fieldTo,
+                           final String promotion) {
+        final Optional<Piece> promotionPiece = promotion == null ? Optional.empty() : Piece.tryParsePromotion(promotion);
+        if (promotion != null && !promotionPiece.isPresent()) {
+            return new MoveResult("A pawn can be promoted to q, r, b or n", Status.INCORRECT);
+        }
+        final Optional<Location> start = Location.tryParse(fieldFrom);
+        final Optional<Location> end = Location.tryParse(fieldTo);
+        if (!start.isPresent() || !end.isPresent()) {
+            return new MoveResult("Start or end location is incorrect", Status.INCORRECT);
+        }
+        return move(login, start.get().square, end.get().square, promotionPiece.orElse(null));
+    }
+
+    //squares are 0..63, promotion is null for the default queen
+    public MoveResult move(final String login, final int start, final int end, final Piece promotion) {
+        return move(login, start, end, promotion, System.currentTimeMillis());
     }
 
-    public MoveResult move(final String login, final String fieldFrom, final String fieldTo) {
+    //now is when the move was received, it is charged to the player's clock
+    public MoveResult move(final String login, final int start, final int end, final Piece promotion,
+                           final long now) {
         checkState(this.players.size() == 2);
         final Optional<Player> playerMaybe = getPlayer(login, false);
         if (!playerMaybe.isPresent()) {
             return new MoveResult("Unknown player", Status.INCORRECT);
         }
         final Player player = playerMaybe.get();
-        if (player.isWhite != this.currentTurn) {
+        if (isGameOver()) {
+            return new MoveResult("The game is over", Status.INCORRECT);
+        }
+        if (player.isWhite != this.board.isWhiteToMove()) {
             return new MoveResult("Wait for your turn", Status.INCORRECT);
         }
-        final Optional<Location> start = Location.tryParse(fieldFrom);
-        final Optional<Location> end = Location.tryParse(fieldTo);
-        if (start.isPresent() && end.isPresent()) {
-            final MoveResult result = this.board.move(player.isWhite, start.get(), end.get());
-            if (result.status == Status.CORRECT) {
-                this.currentTurn = !this.currentTurn;
-            }
-            if (result.status == Status.CORRECT && isPlayerWin(player.isWhite))
-                return new MoveResult(player.isWhite);
-            return result;
+        final Optional<MoveResult> timeUp = flag(now);
+        if (timeUp.isPresent())
+            return timeUp.get();
+        final MoveResult result = this.board.move(player.isWhite, start, end, promotion);
+        if (result.status == Status.CORRECT) {
+            if (this.clock != null)
+                this.clock.punch(player.isWhite, now);
+            final MoveResult ending = checkEnding(player.isWhite, result);
+            this.status = ending.status;
+            return ending;
         }
-        return new MoveResult("Start or end location is incorrect", Status.INCORRECT);
+        return result;
+    }
+
+    //a move found by the engine, refused if the game went on since the engine got the position
+    public MoveResult move(final Engine.Reply reply, final long now) {
+        final Optional<Player> engine = getEngine();
+        if (!engine.isPresent() || !reply.gameId.equals(this.id) || reply.ply != this.board.moveCount()
+                || reply.move == Move.NONE)
+            return new MoveResult("The engine move is out of date", Status.INCORRECT);
+        final int promotion = Move.promotion(reply.move);
+        return move(engine.get().token, Move.from(reply.move), Move.to(reply.move),
+                promotion == Move.NO_PROMOTION ? null : Piece.values()[promotion], now);
+    }
+
+    //the opponent is to move now
+    private MoveResult checkEnding(final boolean isWhite, final MoveResult result) {
+        if (!this.board.hasLegalMoves(!isWhite)) {
+            if (this.board.isInCheck(!isWhite))
+                return result.withEnding(isWhite ? "\nCheckmate. White wins" : "\nCheckmate. Black wins",
+                        isWhite ? Status.WHITE_WINS : Status.BLACK_WINS);
+            return result.withEnding("\nStalemate. Draw", Status.DRAW);
+        }
+        if (this.board.isInsufficientMaterial())
+            return result.withEnding("\nInsufficient material. Draw", Status.DRAW);
+        if (this.board.isThreefoldRepetition())
+            return result.withEnding("\nThreefold repetition. Draw", Status.DRAW);
+        if (this.board.isFiftyMoveRule())
+            return result.withEnding("\nFifty-move rule. Draw", Status.DRAW);
+        return result;
+    }
+
+    //the side to move loses once its time is up
+    public Optional<MoveResult> flag(final long now) {
+        if (this.clock == null || isGameOver() || !this.clock.isFlagged(this.board.isWhiteToMove(), now))
+            return Optional.empty();
+        final boolean whiteWins = !this.board.isWhiteToMove();
+        this.status = whiteWins ? Status.WHITE_WINS_ON_TIME : Status.BLACK_WINS_ON_TIME;
+        return Optional.of(new MoveResult(whiteWins ? "Black is out of time. White wins" : "White is out of time. Black wins",
+                this.status));
+    }
+
+    //white's time starts once both players are in
+    public void startClock(final long now) {
+        if (this.clock != null && !this.clock.isRunning() && this.players.size() == 2)
+            this.clock.start(now);
+    }
+
+    //when the side to move runs out of time, Long.MAX_VALUE if the clock is stopped
+    public long clockDeadline() {
+        return this.clock == null || isGameOver() ? Long.MAX_VALUE : this.clock.deadline(this.board.isWhiteToMove());
+    }
+
+    //null for a game without time control
+    public TimeControl getTimeControl() {
+        return this.clock == null ? null : this.clock.getControl();
+    }
+
+    public long remainingTime(final boolean isWhite, final long now) {
+        checkState(this.clock != null, "The game has no clock");
+        return this.clock.remaining(isWhite, this.board.isWhiteToMove(), now);
     }
 
     public void addPlayer(final Player player) {
@@ -63,6 +156,20 @@ public class Game implements Serializable {
         return this.players.get(0);
     }
 
+    public Optional<Player> getEngine() {
+        for (final Player player : this.players) {
+            if (player.isEngine())
+                return Optional.of(player);
+        }
+        return Optional.empty();
+    }
+
+    public boolean isEngineToMove() {
+        final Optional<Player> engine = getEngine();
+        return engine.isPresent() && this.players.size() == 2 && !isGameOver()
+                && engine.get().isWhite == this.board.isWhiteToMove();
+    }
+
     public Optional<Player> getPlayer(final String token, final boolean opposite) {
         //todo refactor
         if (this.players.size() == 1) {
@@ -78,13 +185,29 @@ public class Game implements Serializable {
     }
 
     public String printState(final boolean isWhite) {
-        String result = "";
-        if (onlyOnePlayer() || !isGameOver()) {
-            result += String.format("\n%s turn ...\n", this.currentTurn ? "White" : "Black");
+        return printState(isWhite, Display.BOARD);
+    }
+
+    public String printState(final boolean isWhite, final Display display) {
+        switch (display) {
+            case FEN:
+                return "\nFEN: " + this.board.fen() + printClock();
+            case DELTA:
+                return "\nDelta: " + this.board.delta() + printClock();
+            default:
+                if (onlyOnePlayer() || !isGameOver())
+                    return (this.board.isWhiteToMove() ? "\nWhite turn ...\n" : "\nBlack turn ...\n")
+                            + this.board.print(isWhite) + printClock();
+                return this.board.print(isWhite) + printClock();
         }
-        result += this.board.print(isWhite);
+    }
 
-        return result;
+    private String printClock() {
+        if (this.clock == null)
+            return "";
+        final long now = System.currentTimeMillis();
+        return String.format("\nClock %s: white %s, black %s", this.clock.getControl(),
+                Clock.format(remainingTime(true, now)), Clock.format(remainingTime(false, now)));
     }
 
     @Override
@@ -101,12 +224,47 @@ public class Game implements Serializable {
         return this.id.equals(game.id);
     }
 
-    private boolean isPlayerWin(final boolean isWhite) {
-        checkState(this.players.size() == 2);
-        return !this.board.pieceExists(!isWhite, Piece.KING.getAbbrChar());
+    Clock getClock() {
+        return this.clock;
+    }
+
+    Board getBoard() {
+        return this.board;
+    }
+
+    public List<Player> getPlayers() {
+        return Collections.unmodifiableList(this.players);
+    }
+
+    void setStatus(final Status status) {
+        this.status = status;
+    }
+
+    public Status getStatus() {
+        return this.status;
+    }
+
+    public boolean isWhiteToMove() {
+        return this.board.isWhiteToMove();
+    }
+
+    public String fen() {
+        return this.board.fen();
+    }
+
+    public String lastMove() {
+        return this.board.lastMove();
+    }
+
+    public boolean isInCheck(final boolean isWhite) {
+        return this.board.isInCheck(isWhite);
+    }
+
+    public int material(final boolean isWhite) {
+        return this.board.material(isWhite);
     }
 
     private boolean isGameOver() {
-        return isPlayerWin(true) || isPlayerWin(false);
+        return this.status != Status.CORRECT;
     }
 }
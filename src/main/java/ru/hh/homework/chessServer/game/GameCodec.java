@@ -0,0 +1,169 @@
+package ru.hh.homework.chessServer.game;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkState;
+
+//binary snapshot of a game, version 3:
+//version (1) | game id (16) | status (1) | side to move (1) | player count (1)
+//| players: color | engine level << 1 (1) token (16) | position: 4 bits per square (32) | move count (2)
+//| moves (2 each) | clock (1, 0 if none) [base (8) increment (8) per move (1) white left (8) black left (8)
+//turn start (8)]
+//version 1 has no clock, versions before 3 have no engines
+public final class GameCodec {
+    public static final byte VERSION = 3;
+    public static final int MOVE_SIZE = 2 + 8 + 2; //move | time it was made, 0 without a clock | ply, from 1
+
+    private static final int POSITION_SIZE = Board.ROWS * Board.COLUMNS / 2;
+    private static final int PLAYER_SIZE = 1 + 16;
+    private static final int HEADER_SIZE = 1 + 16 + 1 + 1 + 1;
+    private static final int CLOCK_SIZE = 8 + 8 + 1 + 8 + 8 + 8;
+
+    private static final Status[] STATUSES = Status.values();
+
+    private GameCodec() {
+    }
+
+    public static boolean isSupported(final byte version) {
+        return version >= 1 && version <= VERSION;
+    }
+
+    public static int size(final Game game) {
+        return HEADER_SIZE + game.getPlayers().size() * PLAYER_SIZE + POSITION_SIZE + 2
+                + game.getBoard().moveCount() * 2 + 1 + (game.getClock() == null ? 0 : CLOCK_SIZE);
+    }
+
+    public static void encode(final Game game, final ByteBuffer buffer) {
+        final Board board = game.getBoard();
+        checkState(board.moveCount() <= Character.MAX_VALUE, "Too many moves to encode");
+        buffer.put(VERSION);
+        writeUUID(game.id, buffer);
+        buffer.put((byte) game.getStatus().ordinal());
+        buffer.put((byte) (board.isWhiteToMove() ? Board.WHITE : Board.BLACK));
+
+        final List<Player> players = game.getPlayers();
+        buffer.put((byte) players.size());
+        for (final Player player : players) {
+            buffer.put((byte) ((player.isWhite ? Board.WHITE : Board.BLACK) | player.engineLevel << 1));
+            writeUUID(UUID.fromString(player.token), buffer);
+        }
+
+        board.writePosition(buffer);
+        buffer.putChar((char) board.moveCount());
+        for (int i = 0; i < board.moveCount(); ++i) {
+            buffer.putChar((char) Move.toCompact(board.moveAt(i)));
+        }
+
+        final Clock clock = game.getClock();
+        buffer.put((byte) (clock == null ? 0 : 1));
+        if (clock != null) {
+            final TimeControl control = clock.getControl();
+            buffer.putLong(control.baseMillis);
+            buffer.putLong(control.incrementMillis);
+            buffer.put((byte) (control.perMove ? 1 : 0));
+            buffer.putLong(clock.getRemaining(true));
+            buffer.putLong(clock.getRemaining(false));
+            buffer.putLong(clock.getTurnStart());
+        }
+    }
+
+    //replays the moves and checks the result against the stored position
+    public static Game decode(final ByteBuffer buffer) {
+        final byte version = buffer.get();
+        checkState(isSupported(version), "Unsupported game snapshot version %s", version);
+        final UUID id = readUUID(buffer);
+        final Status status = STATUSES[buffer.get()];
+        final boolean isWhiteToMove = buffer.get() == Board.WHITE;
+
+        final int playerCount = buffer.get();
+        final boolean[] colors = new boolean[playerCount];
+        final int[] engineLevels = new int[playerCount];
+        final UUID[] tokens = new UUID[playerCount];
+        for (int i = 0; i < playerCount; ++i) {
+            final int player = buffer.get();
+            colors[i] = (player & 1) == Board.WHITE;
+            engineLevels[i] = player >>> 1;
+            tokens[i] = readUUID(buffer);
+        }
+
+        final ByteBuffer position = buffer.slice();
+        position.limit(POSITION_SIZE);
+        buffer.position(buffer.position() + POSITION_SIZE);
+        final int moveCount = buffer.getChar();
+        final int moves = buffer.position();
+        buffer.position(moves + moveCount * 2);
+        Clock clock = null;
+        if (version > 1 && buffer.get() != 0) {
+            final TimeControl control = new TimeControl(buffer.getLong(), buffer.getLong(), buffer.get() != 0);
+            clock = new Clock(control, buffer.getLong(), buffer.getLong(), buffer.getLong());
+        }
+        final int end = buffer.position();
+
+        final Game game = new Game(id, clock);
+        for (int i = 0; i < playerCount; ++i) {
+            game.addPlayer(new Player(game, tokens[i].toString(), colors[i], engineLevels[i]));
+        }
+        final Board board = game.getBoard();
+        buffer.position(moves);
+        for (int i = 0; i < moveCount; ++i) {
+            board.makeMove(board.expandMove(buffer.getChar()));
+        }
+        buffer.position(end);
+        checkState(board.isWhiteToMove() == isWhiteToMove && board.positionEquals(position),
+                "Game snapshot %s is corrupted", game.id);
+        game.setStatus(status);
+        return game;
+    }
+
+    //state of a game as a player sees it, used by the binary protocol:
+    //status (1) | side to move (1) | player color (1) | last move (2, 0xFFFF before the first move) | position (32)
+    public static final int STATE_SIZE = 1 + 1 + 1 + 2 + POSITION_SIZE;
+
+    public static void encodeState(final Game game, final boolean isWhite, final ByteBuffer buffer) {
+        final Board board = game.getBoard();
+        buffer.put((byte) game.getStatus().ordinal());
+        buffer.put((byte) (board.isWhiteToMove() ? Board.WHITE : Board.BLACK));
+        buffer.put((byte) (isWhite ? Board.WHITE : Board.BLACK));
+        buffer.putChar(board.moveCount() == 0 ? Character.MAX_VALUE
+                : (char) Move.fromCompact(Move.toCompact(board.moveAt(board.moveCount() - 1))));
+        board.writePosition(buffer);
+    }
+
+    //the last move in the 2 byte form used by snapshots, the time it was made and its ply, MOVE_SIZE bytes
+    public static void encodeLastMove(final Game game, final ByteBuffer buffer) {
+        final Board board = game.getBoard();
+        checkState(board.moveCount() > 0, "No moves were made");
+        buffer.putChar((char) Move.toCompact(board.moveAt(board.moveCount() - 1)));
+        buffer.putLong(game.getClock() == null ? 0 : game.getClock().getTurnStart());
+        buffer.putChar((char) board.moveCount());
+    }
+
+    //a move the game already has is skipped, a snapshot may be followed by moves it includes.
+    //a move without a time comes from a journal written before clocks, one without a ply is always made
+    public static void replayMove(final Game game, final ByteBuffer buffer) {
+        final Board board = game.getBoard();
+        final int move = buffer.getChar();
+        final long time = buffer.remaining() >= 8 ? buffer.getLong() : 0;
+        if (buffer.remaining() >= 2) {
+            final int ply = buffer.getChar();
+            if (ply <= board.moveCount())
+                return;
+            checkState(ply == board.moveCount() + 1, "Game %s misses moves before ply %s", game.id, ply);
+        }
+        final boolean isWhite = board.isWhiteToMove();
+        board.makeMove(board.expandMove(move));
+        if (game.getClock() != null && time != 0)
+            game.getClock().punch(isWhite, time);
+    }
+
+    private static void writeUUID(final UUID id, final ByteBuffer buffer) {
+        buffer.putLong(id.getMostSignificantBits());
+        buffer.putLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID readUUID(final ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
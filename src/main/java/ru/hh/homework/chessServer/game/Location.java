@@ -1,33 +1,66 @@
 package ru.hh.homework.chessServer.game;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
-import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Preconditions.checkArgument;
 
-public class Location {
-    public final int x;
-    public final int y;
+//squares are ints 0..63 (rank * 8 + file), the 64 Location instances are shared views of them
+public final class Location {
+    public static final int NONE = -1;
 
-    private Location(final int x, final int y) {
-        checkState(isValid(x, y), "Location is out of bounds");
-        this.x = x;
-        this.y = y;
+    private static final Location[] LOCATIONS = new Location[Board.ROWS * Board.COLUMNS];
+    private static final List<Optional<Location>> PARSED = new ArrayList<>(LOCATIONS.length);
+
+    static {
+        for (int square = 0; square < LOCATIONS.length; ++square) {
+            LOCATIONS[square] = new Location(square);
+            PARSED.add(Optional.of(LOCATIONS[square]));
+        }
+    }
+
+    public final int x; //rank
+    public final int y; //file
+    public final int square;
+    private final String name;
+
+    private Location(final int square) {
+        this.square = square;
+        this.x = Bitboards.rank(square);
+        this.y = Bitboards.file(square);
+        this.name = String.valueOf((char) (this.y + 'a')) + String.valueOf(this.x + 1);
+    }
+
+    public static Location of(final int square) {
+        checkArgument(square >= 0 && square < LOCATIONS.length, "Location is out of bounds");
+        return LOCATIONS[square];
     }
 
     public static Optional<Location> tryParse(final String s) {
-        if (!isValid(s))
-            return Optional.empty();
+        return s == null ? Optional.empty() : tryParse(s, 0, s.length());
+    }
 
-        final int x = s.charAt(1) - '1';
-        final int y = s.charAt(0) - 'a';
+    public static Optional<Location> tryParse(final CharSequence s, final int start, final int end) {
+        final int square = parseSquare(s, start, end);
+        return square == NONE ? Optional.empty() : PARSED.get(square);
+    }
+
+    //s[start, end) is a square name like e2, NONE if it is not
+    public static int parseSquare(final CharSequence s, final int start, final int end) {
+        if (end - start != 2)
+            return NONE;
+
+        final int x = s.charAt(start + 1) - '1';
+        final int y = s.charAt(start) - 'a';
         if (!isValid(x, y))
-            return Optional.empty();
+            return NONE;
 
-        return Optional.of(new Location(x, y));
+        return Bitboards.square(x, y);
     }
 
-    private static boolean isValid(final String s) {
-        return s.matches("[a-h][1-8]");
+    public static String nameOf(final int square) {
+        return of(square).name;
     }
 
     private static boolean isValid(final int x, final int y) {
@@ -40,11 +73,16 @@ public class Location {
         if (that == null || getClass() != that.getClass()) return false;
 
         final Location location = (Location) that;
-        return this.x == location.x && this.y == location.y;
+        return this.square == location.square;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.square;
     }
 
     @Override
     public String toString() {
-        return String.valueOf((char) (this.y + 'a')) + String.valueOf(this.x + 1);
+        return this.name;
     }
 }
@@ -0,0 +1,72 @@
+package ru.hh.homework.chessServer.game;
+
+//moves are packed into an int: from (6 bits) | to (6 bits) | promotion piece + 1 (3 bits) | flags (2 bits)
+final class Move {
+    public static final int NONE = 0;
+    public static final int NO_PROMOTION = -1;
+    public static final int BITS = 17;
+
+    private static final int CASTLING = 1 << 15;
+    private static final int EN_PASSANT = 2 << 15;
+    private static final int COMPACT_SPECIAL = 1 << 15;
+
+    private Move() {
+    }
+
+    public static int of(final int from, final int to) {
+        return from | to << 6;
+    }
+
+    public static int of(final int from, final int to, final Piece promotion) {
+        return of(from, to) | (promotion.ordinal() + 1) << 12;
+    }
+
+    public static int castling(final int from, final int to) {
+        return of(from, to) | CASTLING;
+    }
+
+    public static int enPassant(final int from, final int to) {
+        return of(from, to) | EN_PASSANT;
+    }
+
+    public static int from(final int move) {
+        return move & 63;
+    }
+
+    public static int to(final int move) {
+        return (move >>> 6) & 63;
+    }
+
+    //piece ordinal or NO_PROMOTION
+    public static int promotion(final int move) {
+        return ((move >>> 12) & 7) - 1;
+    }
+
+    public static boolean isCastling(final int move) {
+        return (move & CASTLING) != 0;
+    }
+
+    public static boolean isEnPassant(final int move) {
+        return (move & EN_PASSANT) != 0;
+    }
+
+    //coordinate notation like e7e8q
+    public static String name(final int move) {
+        final int promotion = promotion(move);
+        final String squares = Location.nameOf(from(move)) + Location.nameOf(to(move));
+        return promotion == NO_PROMOTION ? squares : squares + Piece.values()[promotion].abbr;
+    }
+
+    //16 bits for storage: castling and en passant share one flag, the moving piece tells them apart
+    public static int toCompact(final int move) {
+        return (move & (COMPACT_SPECIAL - 1)) | ((move & (CASTLING | EN_PASSANT)) != 0 ? COMPACT_SPECIAL : 0);
+    }
+
+    public static int fromCompact(final int compact) {
+        return compact & (COMPACT_SPECIAL - 1);
+    }
+
+    public static boolean isSpecial(final int compact) {
+        return (compact & COMPACT_SPECIAL) != 0;
+    }
+}
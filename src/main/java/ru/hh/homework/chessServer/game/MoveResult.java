@@ -2,21 +2,38 @@ package ru.hh.homework.chessServer.game;
 
 public class MoveResult {
     public final Status status;
+    public final int from; //squares of the move made, Location.NONE if none was made
+    public final int to;
     private final String message;
 
     public MoveResult(final String message, final Status status) {
+        this(message, status, Location.NONE, Location.NONE);
+    }
+
+    public MoveResult(final String message, final Status status, final int from, final int to) {
         this.message = message;
         this.status = status;
+        this.from = from;
+        this.to = to;
     }
 
     public MoveResult(final boolean isWhite) {
-        this.message = (isWhite ? "White" : "Black") + " wins";
-        this.status = isWhite ? Status.WHITE_WINS : Status.BLACK_WINS;
+        this((isWhite ? "White" : "Black") + " wins", isWhite ? Status.WHITE_WINS : Status.BLACK_WINS);
+    }
+
+    //the same move with the way it ended the game
+    public MoveResult withEnding(final String ending, final Status status) {
+        return new MoveResult(this.message + ending, status, this.from, this.to);
+    }
+
+    public boolean isGameOver() {
+        return this.status == Status.WHITE_WINS || this.status == Status.BLACK_WINS || this.status == Status.DRAW
+                || this.status == Status.WHITE_WINS_ON_TIME || this.status == Status.BLACK_WINS_ON_TIME;
     }
 
     @Override
     public String toString() {
-        if (this.status == Status.WHITE_WINS || this.status == Status.BLACK_WINS)
+        if (isGameOver())
             return String.format("%s\nGame over", this.message);
         return this.message;
     }
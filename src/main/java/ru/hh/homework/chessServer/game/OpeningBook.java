@@ -0,0 +1,190 @@
+package ru.hh.homework.chessServer.game;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+//an opening book mapped from a file in the Polyglot layout: 16 byte entries sorted by key,
+//key (8) | move (2) | weight (2) | learn (4), big-endian. keys are the Zobrist keys of this server, not Polyglot's;
+//move: to file (3) | to rank (3) << 3 | from file << 6 | from rank << 9 | promotion << 12 (1 knight .. 4 queen),
+//castling is written as the king taking its own rook.
+//the pages are shared by all games and lookups read them in place, the heap doesn't grow with the book
+public final class OpeningBook {
+    private static final int ENTRY_SIZE = 16;
+    private static final Piece[] PROMOTIONS = {null, Piece.KNIGHT, Piece.BISHOP, Piece.ROOK, Piece.QUEEN};
+
+    private final ByteBuffer entries; //absolute reads only, so that threads share it
+    private final int count;
+
+    private OpeningBook(final ByteBuffer entries) {
+        this.entries = entries;
+        this.count = entries.capacity() / ENTRY_SIZE;
+    }
+
+    public static OpeningBook open(final Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            checkArgument(size % ENTRY_SIZE == 0 && size <= Integer.MAX_VALUE, "%s is not an opening book", file);
+            return new OpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    public int size() {
+        return this.count;
+    }
+
+    //"e2e4 60%, d2d4 40%", empty if the position is not in the book
+    public String describe(final Game game) {
+        final Board board = game.getBoard();
+        final int[] legal = board.legalMoves();
+        final long key = board.getKey();
+        int total = 0;
+        for (int i = lowerBound(key); i < this.count && key(i) == key; ++i) {
+            total += weight(i);
+        }
+        final StringBuilder result = new StringBuilder();
+        for (int i = lowerBound(key); i < this.count && key(i) == key; ++i) {
+            final int move = toMove(bookMove(i), legal);
+            if (move == Move.NONE)
+                continue;
+            if (result.length() > 0)
+                result.append(", ");
+            result.append(Move.name(move)).append(' ').append(total == 0 ? 0 : 100 * weight(i) / total).append('%');
+        }
+        return result.toString();
+    }
+
+    //a legal book move picked at random by weight, Move.NONE if there is none
+    int pick(final Board board) {
+        final int[] legal = board.legalMoves();
+        final long key = board.getKey();
+        final int first = lowerBound(key);
+        int total = 0;
+        for (int i = first; i < this.count && key(i) == key; ++i) {
+            if (toMove(bookMove(i), legal) != Move.NONE)
+                total += weight(i) + 1;
+        }
+        if (total == 0)
+            return Move.NONE;
+        int ticket = ThreadLocalRandom.current().nextInt(total);
+        for (int i = first; i < this.count && key(i) == key; ++i) {
+            final int move = toMove(bookMove(i), legal);
+            if (move != Move.NONE && (ticket -= weight(i) + 1) < 0)
+                return move;
+        }
+        return Move.NONE;
+    }
+
+    //the first entry with the key or after it, keys are compared unsigned as Polyglot does
+    private int lowerBound(final long key) {
+        int low = 0;
+        int high = this.count;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (Long.compareUnsigned(key(middle), key) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private long key(final int i) {
+        return this.entries.getLong(i * ENTRY_SIZE);
+    }
+
+    private int bookMove(final int i) {
+        return this.entries.getChar(i * ENTRY_SIZE + 8);
+    }
+
+    private int weight(final int i) {
+        return this.entries.getChar(i * ENTRY_SIZE + 10);
+    }
+
+    //the legal move the book move stands for, Move.NONE if there is none
+    private static int toMove(final int bookMove, final int[] legal) {
+        final int to = Bitboards.square((bookMove >>> 3) & 7, bookMove & 7);
+        final int from = Bitboards.square((bookMove >>> 9) & 7, (bookMove >>> 6) & 7);
+        final int promotionIndex = (bookMove >>> 12) & 7;
+        if (promotionIndex >= PROMOTIONS.length)
+            return Move.NONE;
+        final Piece promotion = PROMOTIONS[promotionIndex];
+        for (final int move : legal) {
+            if (Move.from(move) != from)
+                continue;
+            if (Move.isCastling(move) ? rookSquare(move) == to : Move.to(move) == to
+                    && Move.promotion(move) == (promotion == null ? Move.NO_PROMOTION : promotion.ordinal()))
+                return move;
+        }
+        return Move.NONE;
+    }
+
+    private static int toBookMove(final int move) {
+        final int to = Move.isCastling(move) ? rookSquare(move) : Move.to(move);
+        final int from = Move.from(move);
+        int promotion = 0;
+        for (int i = 1; i < PROMOTIONS.length; ++i) {
+            if (PROMOTIONS[i].ordinal() == Move.promotion(move))
+                promotion = i;
+        }
+        return Bitboards.file(to) | Bitboards.rank(to) << 3 | Bitboards.file(from) << 6 | Bitboards.rank(from) << 9
+                | promotion << 12;
+    }
+
+    private static int rookSquare(final int castling) {
+        return Move.to(castling) > Move.from(castling) ? Move.from(castling) + 3 : Move.from(castling) - 4;
+    }
+
+    //a book of the lines in a text file: a line is a game from the start in coordinate notation
+    //("e2e4 e7e5 g1f3"), the weight of a move is the number of lines that play it; # starts a comment
+    public static int build(final Path lines, final Path file) throws IOException {
+        final Map<Long, Map<Integer, Integer>> weights = new HashMap<>();
+        int lineNumber = 0;
+        for (final String line : Files.readAllLines(lines, StandardCharsets.US_ASCII)) {
+            ++lineNumber;
+            final String moves = line.contains("#") ? line.substring(0, line.indexOf('#')) : line;
+            final Board board = new Board();
+            for (final String token : moves.trim().split("\\s+")) {
+                if (token.isEmpty() || token.endsWith("."))
+                    continue;
+                final int from = token.length() >= 4 ? Location.parseSquare(token, 0, 2) : Location.NONE;
+                final int to = token.length() >= 4 ? Location.parseSquare(token, 2, 4) : Location.NONE;
+                final Piece promotion = token.length() == 5
+                        ? Piece.tryParsePromotion(token, 4, 5).orElse(null) : null;
+                final long key = board.getKey();
+                if (from == Location.NONE || to == Location.NONE || token.length() > 5
+                        || board.move(board.isWhiteToMove(), from, to, promotion).status == Status.INCORRECT) {
+                    System.err.printf("Line %d: %s is skipped\n", lineNumber, token);
+                    break;
+                }
+                weights.computeIfAbsent(key, k -> new HashMap<>())
+                        .merge(toBookMove(board.moveAt(board.moveCount() - 1)), 1, Integer::sum);
+            }
+        }
+
+        final List<long[]> entries = new ArrayList<>(); //key, move, weight
+        for (final Map.Entry<Long, Map<Integer, Integer>> position : weights.entrySet()) {
+            for (final Map.Entry<Integer, Integer> move : position.getValue().entrySet()) {
+                entries.add(new long[]{position.getKey(), move.getKey(), Math.min(move.getValue(), 0xFFFF)});
+            }
+        }
+        entries.sort((a, b) -> a[0] != b[0] ? Long.compareUnsigned(a[0], b[0]) : Long.compare(b[2], a[2]));
+        final ByteBuffer buffer = ByteBuffer.allocate(entries.size() * ENTRY_SIZE);
+        for (final long[] entry : entries) {
+            buffer.putLong(entry[0]).putChar((char) entry[1]).putChar((char) entry[2]).putInt(0);
+        }
+        Files.write(file, buffer.array());
+        return entries.size();
+    }
+}
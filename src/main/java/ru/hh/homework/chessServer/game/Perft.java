@@ -0,0 +1,156 @@
+package ru.hh.homework.chessServer.game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+//leaves of the legal move tree to a depth, compared with published numbers: the usual check of a move generator.
+//each root move is counted by a fork-join task on a board of its own; nodes per second of a run are comparable
+//between releases on the same machine
+public final class Perft {
+    public static final List<Position> POSITIONS = Collections.unmodifiableList(Arrays.asList(
+            new Position("start", "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+                    20, 400, 8902, 197281, 4865609, 119060324),
+            new Position("kiwipete", "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                    48, 2039, 97862, 4085603, 193690690),
+            new Position("endgame", "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+                    14, 191, 2812, 43238, 674624, 11030083),
+            new Position("promotions", "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+                    6, 264, 9467, 422333, 15833292),
+            new Position("checks", "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+                    44, 1486, 62379, 2103487, 89941194)));
+
+    private Perft() {
+    }
+
+    public static long count(final String fen, final int depth, final ForkJoinPool pool) {
+        checkArgument(depth > 0, "Incorrect depth");
+        parse(fen);
+        return pool.invoke(new RootTask(fen, depth));
+    }
+
+    //every known position up to the depth, one line per count; false if a count is wrong
+    public static boolean verify(final int maxDepth, final ForkJoinPool pool) {
+        boolean isCorrect = true;
+        long totalNodes = 0;
+        long totalNanos = 0;
+        for (final Position position : POSITIONS) {
+            for (int depth = 1; depth <= Math.min(maxDepth, position.maxDepth()); ++depth) {
+                final long start = System.nanoTime();
+                final long nodes = count(position.fen, depth, pool);
+                final long elapsed = System.nanoTime() - start;
+                final long expected = position.nodes(depth);
+                isCorrect &= nodes == expected;
+                totalNodes += nodes;
+                totalNanos += elapsed;
+                System.out.printf("%s depth %d: %d nodes%s in %d ms, %s\n", position.name, depth, nodes,
+                        nodes == expected ? "" : " instead of " + expected,
+                        TimeUnit.NANOSECONDS.toMillis(elapsed), rate(nodes, elapsed));
+            }
+        }
+        System.out.printf("Perft %s: %d nodes in %d ms, %s on %d threads\n", isCorrect ? "passed" : "failed",
+                totalNodes, TimeUnit.NANOSECONDS.toMillis(totalNanos), rate(totalNodes, totalNanos),
+                pool.getParallelism());
+        return isCorrect;
+    }
+
+    private static String rate(final long nodes, final long nanos) {
+        return String.format("%.2fM nodes/s", nanos == 0 ? 0.0 : nodes * 1000.0 / nanos);
+    }
+
+    private static Board parse(final String fen) {
+        return Board.tryParseFen(fen).orElseThrow(() -> new IllegalArgumentException("Incorrect FEN " + fen));
+    }
+
+    //moves[depth] holds the moves of the position that many plies above the leaves
+    static long leaves(final Board board, final int depth, final int[][] moves) {
+        final int count = board.generateLegalMoves(board.isWhiteToMove(), moves[depth]);
+        if (depth == 1)
+            return count;
+        long nodes = 0;
+        for (int i = 0; i < count; ++i) {
+            board.makeMove(moves[depth][i]);
+            nodes += leaves(board, depth - 1, moves);
+            board.unmakeMove();
+        }
+        return nodes;
+    }
+
+    private static final class RootTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final String fen;
+        private final int depth;
+
+        RootTask(final String fen, final int depth) {
+            this.fen = fen;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            final Board board = parse(this.fen);
+            final int[][] moves = new int[this.depth + 1][Board.MAX_MOVES];
+            if (this.depth == 1)
+                return leaves(board, 1, moves);
+            final int count = board.generateLegalMoves(board.isWhiteToMove(), moves[this.depth]);
+            final List<MoveTask> tasks = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                tasks.add(new MoveTask(this.fen, moves[this.depth][i], this.depth - 1));
+            }
+            long nodes = 0;
+            for (final MoveTask task : ForkJoinTask.invokeAll(tasks)) {
+                nodes += task.join();
+            }
+            return nodes;
+        }
+    }
+
+    private static final class MoveTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final String fen;
+        private final int move;
+        private final int depth; //after the move
+
+        MoveTask(final String fen, final int move, final int depth) {
+            this.fen = fen;
+            this.move = move;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            final Board board = parse(this.fen);
+            board.makeMove(this.move);
+            return leaves(board, this.depth, new int[this.depth + 1][Board.MAX_MOVES]);
+        }
+    }
+
+    public static final class Position {
+        public final String name;
+        public final String fen;
+        private final long[] nodes; //by depth from 1
+
+        Position(final String name, final String fen, final long... nodes) {
+            this.name = name;
+            this.fen = fen;
+            this.nodes = nodes;
+        }
+
+        public int maxDepth() {
+            return this.nodes.length;
+        }
+
+        public long nodes(final int depth) {
+            return this.nodes[depth - 1];
+        }
+    }
+}
@@ -1,20 +1,41 @@
 package ru.hh.homework.chessServer.game;
 
+import java.util.Optional;
+
 public enum Piece {
-    ROOK("r"),
-    KNIGHT("n"),
-    BISHOP("b"),
-    KING("k"),
-    QUEEN("q"),
-    PAWN("p");
+    ROOK("r", 5),
+    KNIGHT("n", 3),
+    BISHOP("b", 3),
+    KING("k", 0),
+    QUEEN("q", 9),
+    PAWN("p", 1);
+
+    private static final Piece[] PROMOTIONS = {QUEEN, ROOK, BISHOP, KNIGHT};
 
     public final String abbr;
+    public final int value;
 
-    private Piece(String name) {
+    private Piece(String name, int value) {
         this.abbr = name;
+        this.value = value;
     }
 
     public char getAbbrChar() {
         return this.abbr.charAt(0);
     }
+
+    public static Optional<Piece> tryParsePromotion(final String s) {
+        return s == null ? Optional.empty() : tryParsePromotion(s, 0, s.length());
+    }
+
+    public static Optional<Piece> tryParsePromotion(final CharSequence s, final int start, final int end) {
+        if (end - start == 1) {
+            final char c = Character.toLowerCase(s.charAt(start));
+            for (final Piece piece : PROMOTIONS) {
+                if (piece.getAbbrChar() == c)
+                    return Optional.of(piece);
+            }
+        }
+        return Optional.empty();
+    }
 }
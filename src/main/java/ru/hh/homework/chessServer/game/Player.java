@@ -1,18 +1,26 @@
 package ru.hh.homework.chessServer.game;
 
-import java.io.Serializable;
-
 import static com.google.common.base.Preconditions.checkNotNull;
 
-public class Player implements Serializable {
+public class Player {
     public final String token;
     public final boolean isWhite;
     public final Game game;
+    public final int engineLevel; //0 for a person
 
     public Player(final Game game, final String token, final boolean isWhite) {
+        this(game, token, isWhite, 0);
+    }
+
+    public Player(final Game game, final String token, final boolean isWhite, final int engineLevel) {
         this.game = checkNotNull(game);
         this.token = checkNotNull(token);
         this.isWhite = isWhite;
+        this.engineLevel = engineLevel;
+    }
+
+    public boolean isEngine() {
+        return this.engineLevel > 0;
     }
 
     @Override
@@ -31,6 +39,6 @@ public class Player implements Serializable {
 
     @Override
     public String toString() {
-        return String.format("%s player", isWhite ? "White" : "Black");
+        return String.format(isEngine() ? "%s engine" : "%s player", isWhite ? "White" : "Black");
     }
 }
@@ -0,0 +1,191 @@
+package ru.hh.homework.chessServer.game;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+//what is known about positions seen by any game or search, keyed by Zobrist key: legal moves of the side to move,
+//rendered boards and the engine's analysis. the cache is split into sets of WAYS entries, a set belongs to one of
+//the stripes and is guarded by its lock; a full set evicts with CLOCK, an entry used since the hand passed it
+//gets a second chance
+public final class PositionCache {
+    private static final int WAYS = 4;
+    private static final PositionCache SHARED = new PositionCache(64, 1 << 16);
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int setMask; //of a stripe
+    private final LongAdder moveHits = new LongAdder();
+    private final LongAdder moveMisses = new LongAdder();
+    private final LongAdder boardHits = new LongAdder();
+    private final LongAdder boardMisses = new LongAdder();
+    private final LongAdder analysisHits = new LongAdder();
+    private final LongAdder analysisMisses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    //both are powers of two
+    PositionCache(final int stripes, final int capacity) {
+        checkArgument(Integer.bitCount(stripes) == 1 && Integer.bitCount(capacity) == 1
+                && capacity >= stripes * WAYS, "Incorrect cache size");
+        this.stripes = new Stripe[stripes];
+        final int sets = capacity / WAYS / stripes;
+        for (int i = 0; i < stripes; ++i) {
+            this.stripes[i] = new Stripe(sets);
+        }
+        this.stripeMask = stripes - 1;
+        this.setMask = sets - 1;
+    }
+
+    public static PositionCache shared() {
+        return SHARED;
+    }
+
+    //null if unknown, the array must not be changed
+    int[] legalMoves(final long key) {
+        final Stripe stripe = stripe(key);
+        final int[] moves;
+        synchronized (stripe) {
+            final int slot = stripe.find(key, set(key));
+            moves = slot < 0 ? null : stripe.moves[slot];
+        }
+        (moves == null ? this.moveMisses : this.moveHits).increment();
+        return moves;
+    }
+
+    void putLegalMoves(final long key, final int[] moves) {
+        final Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.moves[slot(stripe, key)] = moves;
+        }
+    }
+
+    //null if unknown
+    String board(final long key, final boolean isWhite) {
+        final Stripe stripe = stripe(key);
+        final String board;
+        synchronized (stripe) {
+            final int slot = stripe.find(key, set(key));
+            board = slot < 0 ? null : (isWhite ? stripe.whiteBoards : stripe.blackBoards)[slot];
+        }
+        (board == null ? this.boardMisses : this.boardHits).increment();
+        return board;
+    }
+
+    void putBoard(final long key, final boolean isWhite, final String board) {
+        final Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            (isWhite ? stripe.whiteBoards : stripe.blackBoards)[slot(stripe, key)] = board;
+        }
+    }
+
+    //0 if the position was not analysed, see Engine for the format
+    long analysis(final long key) {
+        final Stripe stripe = stripe(key);
+        final long analysis;
+        synchronized (stripe) {
+            final int slot = stripe.find(key, set(key));
+            analysis = slot < 0 ? 0 : stripe.analyses[slot];
+        }
+        (analysis == 0 ? this.analysisMisses : this.analysisHits).increment();
+        return analysis;
+    }
+
+    void putAnalysis(final long key, final long analysis) {
+        final Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.analyses[slot(stripe, key)] = analysis;
+        }
+    }
+
+    //moves 97.5% (4000/4102), boards 80.0% (40/50), analyses 0.0% (0/0), evictions 17
+    public String stats() {
+        return String.format("moves %s, boards %s, analyses %s, evictions %d",
+                hitRate(this.moveHits.sum(), this.moveMisses.sum()),
+                hitRate(this.boardHits.sum(), this.boardMisses.sum()),
+                hitRate(this.analysisHits.sum(), this.analysisMisses.sum()), this.evictions.sum());
+    }
+
+    private static String hitRate(final long hits, final long misses) {
+        final long total = hits + misses;
+        return String.format("%.1f%% (%d/%d)", total == 0 ? 0.0 : 100.0 * hits / total, hits, total);
+    }
+
+    private Stripe stripe(final long key) {
+        return this.stripes[(int) key & this.stripeMask];
+    }
+
+    private int set(final long key) {
+        return (int) (key >>> 32) & this.setMask;
+    }
+
+    //the slot of the key, taken from another position if the key is new; called under the stripe lock
+    private int slot(final Stripe stripe, final long key) {
+        final int set = set(key);
+        final int slot = stripe.find(key, set);
+        if (slot >= 0)
+            return slot;
+        final int victim = stripe.evict(set);
+        if (stripe.used[victim])
+            this.evictions.increment();
+        stripe.reset(victim, key);
+        return victim;
+    }
+
+    private static final class Stripe {
+        final long[] keys;
+        final boolean[] used;
+        final boolean[] referenced;
+        final int[] hands; //set -> next way the clock looks at
+        final int[][] moves;
+        final String[] whiteBoards;
+        final String[] blackBoards;
+        final long[] analyses;
+
+        Stripe(final int sets) {
+            this.keys = new long[sets * WAYS];
+            this.used = new boolean[sets * WAYS];
+            this.referenced = new boolean[sets * WAYS];
+            this.hands = new int[sets];
+            this.moves = new int[sets * WAYS][];
+            this.whiteBoards = new String[sets * WAYS];
+            this.blackBoards = new String[sets * WAYS];
+            this.analyses = new long[sets * WAYS];
+        }
+
+        //-1 if the key is not in the set
+        int find(final long key, final int set) {
+            for (int slot = set * WAYS; slot < (set + 1) * WAYS; ++slot) {
+                if (this.used[slot] && this.keys[slot] == key) {
+                    this.referenced[slot] = true;
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        //a free slot or the first one not referenced since the hand passed it
+        int evict(final int set) {
+            for (int slot = set * WAYS; slot < (set + 1) * WAYS; ++slot) {
+                if (!this.used[slot])
+                    return slot;
+            }
+            while (true) {
+                final int slot = set * WAYS + this.hands[set];
+                this.hands[set] = (this.hands[set] + 1) % WAYS;
+                if (!this.referenced[slot])
+                    return slot;
+                this.referenced[slot] = false;
+            }
+        }
+
+        void reset(final int slot, final long key) {
+            this.keys[slot] = key;
+            this.used[slot] = true;
+            this.referenced[slot] = true;
+            this.moves[slot] = null;
+            this.whiteBoards[slot] = null;
+            this.blackBoards[slot] = null;
+            this.analyses[slot] = 0;
+        }
+    }
+}
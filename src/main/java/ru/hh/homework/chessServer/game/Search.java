@@ -0,0 +1,222 @@
+package ru.hh.homework.chessServer.game;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+//principal variation search of one thread on its own board with a quiescence search at the leaves.
+//scores are centipawns from the side to move, the search gives up at the deadline and its result is then unusable
+final class Search {
+    static final int INFINITY = 32000;
+    static final int MATE = 31000;
+    static final int MAX_PLY = 64;
+
+    private static final int HASH_MOVE = 1 << 30;
+    private static final int CAPTURE = 1 << 20; //plus victim value * 16 - attacker value / 16
+    private static final int KILLER = 1 << 19;
+    private static final int CHECK_INTERVAL = 1023; //nodes between looks at the time, plus one
+
+    private final Board board;
+    private final TranspositionTable table;
+    private final long deadline; //System.nanoTime()
+    private final int[][] moves = new int[MAX_PLY][Board.MAX_MOVES];
+    private final int[][] orders = new int[MAX_PLY][Board.MAX_MOVES];
+    private final int[][] killers = new int[MAX_PLY][2]; //quiet moves that caused a cutoff at a ply
+    private long nodes;
+    private boolean aborted;
+
+    Search(final Board board, final TranspositionTable table, final long deadline) {
+        this.board = checkNotNull(board);
+        this.table = checkNotNull(table);
+        this.deadline = deadline;
+    }
+
+    boolean isAborted() {
+        return this.aborted;
+    }
+
+    long getNodes() {
+        return this.nodes;
+    }
+
+    //score of a legal root move from the point of view of the side making it
+    int searchMove(final int move, final int depth, final int alpha, final int beta) {
+        this.board.makeMove(move);
+        final int score = -search(depth - 1, -beta, -alpha, 1);
+        this.board.unmakeMove();
+        return score;
+    }
+
+    private int search(int depth, int alpha, final int beta, final int ply) {
+        if (isTimeUp())
+            return 0;
+        if (this.board.isRepetition() || this.board.isFiftyMoveRule())
+            return 0;
+        final boolean isWhite = this.board.isWhiteToMove();
+        final boolean inCheck = this.board.isInCheck(isWhite);
+        if (inCheck)
+            ++depth;
+        if (depth <= 0 || ply >= MAX_PLY)
+            return quiesce(alpha, beta, ply);
+
+        final long key = this.board.getKey();
+        final long entry = this.table.probe(key);
+        int hashMove = Move.NONE;
+        if (entry != 0) {
+            hashMove = TranspositionTable.move(entry);
+            if (TranspositionTable.depth(entry) >= depth) {
+                final int score = fromTable(TranspositionTable.score(entry), ply);
+                final int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT
+                        || bound == TranspositionTable.LOWER && score >= beta
+                        || bound == TranspositionTable.UPPER && score <= alpha)
+                    return score;
+            }
+        }
+
+        final int[] moves = this.moves[ply];
+        final int count = this.board.generatePseudoLegalMoves(isWhite, moves);
+        order(moves, count, ply, hashMove);
+        final int initialAlpha = alpha;
+        int best = -INFINITY;
+        int bestMove = Move.NONE;
+        int legal = 0;
+        for (int i = 0; i < count; ++i) {
+            final int move = next(moves, this.orders[ply], i, count);
+            final boolean isQuiet = this.orders[ply][i] < CAPTURE;
+            this.board.makeMove(move);
+            if (this.board.isInCheck(isWhite)) {
+                this.board.unmakeMove();
+                continue;
+            }
+            int score;
+            if (++legal == 1) {
+                score = -search(depth - 1, -beta, -alpha, ply + 1);
+            } else {
+                score = -search(depth - 1, -alpha - 1, -alpha, ply + 1);
+                if (score > alpha && score < beta)
+                    score = -search(depth - 1, -beta, -alpha, ply + 1);
+            }
+            this.board.unmakeMove();
+            if (this.aborted)
+                return 0;
+            if (score > best) {
+                best = score;
+                bestMove = move;
+            }
+            if (score > alpha)
+                alpha = score;
+            if (alpha >= beta) {
+                if (isQuiet && this.killers[ply][0] != move) {
+                    this.killers[ply][1] = this.killers[ply][0];
+                    this.killers[ply][0] = move;
+                }
+                break;
+            }
+        }
+        if (legal == 0)
+            return inCheck ? -MATE + ply : 0;
+        this.table.store(key, bestMove, depth, best >= beta ? TranspositionTable.LOWER
+                : best > initialAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER, toTable(best, ply));
+        return best;
+    }
+
+    //only captures and promotions, so that a leaf is not scored in the middle of an exchange
+    private int quiesce(int alpha, final int beta, final int ply) {
+        if (isTimeUp())
+            return 0;
+        final int standPat = Evaluation.evaluate(this.board);
+        if (standPat >= beta || ply >= MAX_PLY)
+            return standPat;
+        if (standPat > alpha)
+            alpha = standPat;
+        final boolean isWhite = this.board.isWhiteToMove();
+        final int[] moves = this.moves[ply];
+        final int count = this.board.generatePseudoLegalMoves(isWhite, moves);
+        order(moves, count, ply, Move.NONE);
+        for (int i = 0; i < count; ++i) {
+            final int move = next(moves, this.orders[ply], i, count);
+            //the rest are quiet
+            if (this.orders[ply][i] < KILLER)
+                break;
+            if (this.orders[ply][i] < CAPTURE && Move.promotion(move) == Move.NO_PROMOTION)
+                continue;
+            this.board.makeMove(move);
+            if (this.board.isInCheck(isWhite)) {
+                this.board.unmakeMove();
+                continue;
+            }
+            final int score = -quiesce(-beta, -alpha, ply + 1);
+            this.board.unmakeMove();
+            if (this.aborted)
+                return 0;
+            if (score >= beta)
+                return score;
+            if (score > alpha)
+                alpha = score;
+        }
+        return alpha;
+    }
+
+    private boolean isTimeUp() {
+        if ((++this.nodes & CHECK_INTERVAL) == 0 && System.nanoTime() - this.deadline >= 0)
+            this.aborted = true;
+        return this.aborted;
+    }
+
+    //the hash move, captures of the most valuable victims by the least valuable attackers, promotions,
+    //killers, then the rest
+    private void order(final int[] moves, final int count, final int ply, final int hashMove) {
+        final int[] orders = this.orders[ply];
+        final int[] killers = this.killers[ply];
+        for (int i = 0; i < count; ++i) {
+            final int move = moves[i];
+            final Piece victim = Move.isEnPassant(move) ? Piece.PAWN : this.board.pieceAt(Move.to(move));
+            if (move == hashMove) {
+                orders[i] = HASH_MOVE;
+            } else if (victim != null) {
+                orders[i] = CAPTURE + Evaluation.VALUES[victim.ordinal()] * 16
+                        - Evaluation.VALUES[this.board.pieceAt(Move.from(move)).ordinal()] / 16;
+            } else if (Move.promotion(move) != Move.NO_PROMOTION) {
+                orders[i] = KILLER + 2 + Move.promotion(move);
+            } else if (move == killers[0]) {
+                orders[i] = KILLER + 1;
+            } else if (move == killers[1]) {
+                orders[i] = KILLER;
+            } else {
+                orders[i] = 0;
+            }
+        }
+    }
+
+    //selection sort one step at a time, a cutoff usually comes before the whole list is sorted
+    private static int next(final int[] moves, final int[] orders, final int i, final int count) {
+        int best = i;
+        for (int j = i + 1; j < count; ++j) {
+            if (orders[j] > orders[best])
+                best = j;
+        }
+        final int move = moves[best];
+        moves[best] = moves[i];
+        moves[i] = move;
+        final int order = orders[best];
+        orders[best] = orders[i];
+        orders[i] = order;
+        return move;
+    }
+
+    //mate scores are stored relative to the position, not to the root
+    private static int toTable(final int score, final int ply) {
+        if (score > MATE - MAX_PLY)
+            return score + ply;
+        if (score < -MATE + MAX_PLY)
+            return score - ply;
+        return score;
+    }
+
+    private static int fromTable(final int score, final int ply) {
+        if (score > MATE - MAX_PLY)
+            return score - ply;
+        if (score < -MATE + MAX_PLY)
+            return score + ply;
+        return score;
+    }
+}
@@ -3,6 +3,9 @@ package ru.hh.homework.chessServer.game;
 public enum Status {
     WHITE_WINS,
     BLACK_WINS,
+    DRAW,
     CORRECT,
-    INCORRECT
+    INCORRECT,
+    WHITE_WINS_ON_TIME, //appended last so that ordinals in stored snapshots keep their meaning
+    BLACK_WINS_ON_TIME
 }
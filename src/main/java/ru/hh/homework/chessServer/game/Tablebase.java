@@ -0,0 +1,194 @@
+package ru.hh.homework.chessServer.game;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+//distance to mate in king and queen or king and rook against a bare king, made by generate() and mapped from
+//its file: a byte per position, 0 for a draw, plies to mate + 1 otherwise. the side with the piece is strong;
+//index: (((table * 2 + side to move, 0 if strong) * 64 + strong king) * 64 + weak king) * 64 + piece
+public final class Tablebase {
+    public static final int NOT_FOUND = -1;
+
+    private static final Piece[] PIECES = {Piece.QUEEN, Piece.ROOK}; //by table
+    private static final int TABLE_SIZE = 2 * 64 * 64 * 64;
+    private static final int ILLEGAL = 255;
+    //while generating
+    private static final int UNKNOWN = -1;
+    private static final int IMPOSSIBLE = -2;
+
+    private final ByteBuffer values;
+
+    private Tablebase(final ByteBuffer values) {
+        this.values = values;
+    }
+
+    public static Tablebase open(final Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            checkArgument(channel.size() == (long) PIECES.length * TABLE_SIZE, "%s is not a tablebase", file);
+            return new Tablebase(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    //"White mates in 7", "Draw", empty if the position is not in the tablebase
+    public String describe(final Game game) {
+        final Board board = game.getBoard();
+        final int index = index(board);
+        if (index == NOT_FOUND)
+            return "";
+        final boolean isStrongToMove = index / (64 * 64 * 64) % 2 == 0;
+        final int value = this.values.get(index) & 0xFF;
+        if (value == 0)
+            return "Draw";
+        if (value == 1)
+            return "Checkmate";
+        return String.format("%s mates in %d", isStrongToMove == board.isWhiteToMove() ? "White" : "Black",
+                value / 2);
+    }
+
+    //0 for a draw, plies to mate + 1 otherwise, NOT_FOUND if the material is not in the tablebase
+    int probe(final Board board) {
+        final int index = index(board);
+        return index == NOT_FOUND ? NOT_FOUND : this.values.get(index) & 0xFF;
+    }
+
+    //the strong side mates as fast as it can, the weak side holds a draw if there is one or delays the mate;
+    //Move.NONE if the position is not in the tablebase or the strong side can't win
+    int bestMove(final Board board) {
+        final int value = probe(board);
+        if (value == NOT_FOUND || value == 0 || value == ILLEGAL)
+            return Move.NONE;
+        final boolean isStrongToMove = value % 2 == 0;
+        int best = Move.NONE;
+        int bestValue = 0;
+        for (final int move : board.legalMoves()) {
+            board.makeMove(move);
+            final int reply = probe(board);
+            board.unmakeMove();
+            //a taken piece leaves bare kings
+            final int child = reply == NOT_FOUND ? 0 : reply;
+            if (isStrongToMove ? child != 0 && (best == Move.NONE || child < bestValue)
+                    : best == Move.NONE || bestValue != 0 && (child == 0 || child > bestValue)) {
+                best = move;
+                bestValue = child;
+            }
+        }
+        return best;
+    }
+
+    private static int index(final Board board) {
+        if (!board.hasKing(true) || !board.hasKing(false))
+            return NOT_FOUND;
+        for (int table = 0; table < PIECES.length; ++table) {
+            final Piece piece = PIECES[table];
+            for (final boolean strong : new boolean[]{true, false}) {
+                if (board.count(strong, piece) == 1 && board.material(strong) == piece.value
+                        && board.material(!strong) == 0)
+                    return index(table, strong == board.isWhiteToMove() ? 0 : 1, board.kingSquare(strong),
+                            board.kingSquare(!strong), Long.numberOfTrailingZeros(board.pieces(strong, piece)));
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private static int index(final int table, final int weakToMove, final int strongKing, final int weakKing,
+                             final int piece) {
+        return (((table * 2 + weakToMove) * 64 + strongKing) * 64 + weakKing) * 64 + piece;
+    }
+
+    //retrograde analysis a ply at a time: a strong position is mated in n if a move reaches a weak one mated
+    //in n - 1, a weak one if all its moves reach known strong ones and none takes the piece.
+    //plies are indexed within their table
+    public static void generate(final Path file) throws IOException {
+        final ByteBuffer result = ByteBuffer.allocate(PIECES.length * TABLE_SIZE);
+        for (int table = 0; table < PIECES.length; ++table) {
+            final int[] plies = new int[TABLE_SIZE];
+            Arrays.fill(plies, UNKNOWN);
+            for (int index = 0; index < TABLE_SIZE; ++index) {
+                if (!isLegal(table, index))
+                    plies[index] = IMPOSSIBLE;
+            }
+            for (int ply = 0, unchanged = 0; unchanged < 2; ++ply) {
+                boolean changed = false;
+                //even plies are the weak side to move
+                final int first = ply % 2 == 0 ? TABLE_SIZE / 2 : 0;
+                for (int index = first; index < first + TABLE_SIZE / 2; ++index) {
+                    if (plies[index] == UNKNOWN && (ply % 2 == 0 ? isWeakLost(table, index, plies)
+                            : isStrongWinning(table, index, plies, ply - 1))) {
+                        plies[index] = ply;
+                        changed = true;
+                    }
+                }
+                unchanged = changed ? 0 : unchanged + 1;
+            }
+            for (final int value : plies) {
+                result.put((byte) (value == IMPOSSIBLE ? ILLEGAL : value == UNKNOWN ? 0 : value + 1));
+            }
+        }
+        Files.write(file, result.array());
+    }
+
+    private static long attacks(final int table, final int square, final long occupied) {
+        return table == 0 ? Bitboards.queenAttacks(square, occupied) : Bitboards.rookAttacks(square, occupied);
+    }
+
+    private static boolean isLegal(final int table, final int index) {
+        final int piece = index & 63;
+        final int weakKing = (index >>> 6) & 63;
+        final int strongKing = (index >>> 12) & 63;
+        final boolean isWeakToMove = (index >>> 18 & 1) == 1;
+        if (piece == weakKing || piece == strongKing || weakKing == strongKing
+                || (Bitboards.kingAttacks(strongKing) & 1L << weakKing) != 0)
+            return false;
+        //the weak king can't be in check with the strong side to move
+        return isWeakToMove
+                || (attacks(table, piece, 1L << strongKing | 1L << weakKing) & 1L << weakKing) == 0;
+    }
+
+    private static boolean isStrongWinning(final int table, final int index, final int[] plies, final int target) {
+        final int piece = index & 63;
+        final int weakKing = (index >>> 6) & 63;
+        final int strongKing = (index >>> 12) & 63;
+        final long occupied = 1L << piece | 1L << weakKing | 1L << strongKing;
+        long kingMoves = Bitboards.kingAttacks(strongKing) & ~Bitboards.kingAttacks(weakKing) & ~(1L << piece);
+        while (kingMoves != 0) {
+            final int to = Long.numberOfTrailingZeros(kingMoves);
+            kingMoves &= kingMoves - 1;
+            if (plies[index(0, 1, to, weakKing, piece)] == target)
+                return true;
+        }
+        long pieceMoves = attacks(table, piece, occupied) & ~occupied;
+        while (pieceMoves != 0) {
+            final int to = Long.numberOfTrailingZeros(pieceMoves);
+            pieceMoves &= pieceMoves - 1;
+            if (plies[index(0, 1, strongKing, weakKing, to)] == target)
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isWeakLost(final int table, final int index, final int[] plies) {
+        final int piece = index & 63;
+        final int weakKing = (index >>> 6) & 63;
+        final int strongKing = (index >>> 12) & 63;
+        //the weak king no longer blocks the piece
+        final long attacked = Bitboards.kingAttacks(strongKing)
+                | attacks(table, piece, 1L << piece | 1L << strongKing);
+        long moves = Bitboards.kingAttacks(weakKing) & ~attacked & ~(1L << strongKing);
+        if (moves == 0)
+            return (attacked & 1L << weakKing) != 0;
+        while (moves != 0) {
+            final int to = Long.numberOfTrailingZeros(moves);
+            moves &= moves - 1;
+            if (to == piece || plies[index(0, 0, strongKing, to, piece)] < 0)
+                return false;
+        }
+        return true;
+    }
+}
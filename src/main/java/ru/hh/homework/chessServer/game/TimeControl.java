@@ -0,0 +1,67 @@
+package ru.hh.homework.chessServer.game;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+//"5+3": 5 minutes for the game and 3 seconds added after each move,
+//"3d": correspondence, 3 days for every move and nothing is carried over
+public final class TimeControl {
+    private static final int MAX_MINUTES = 600;
+    private static final int MAX_INCREMENT_SECONDS = 180;
+    private static final int MAX_DAYS = 30;
+
+    public final long baseMillis; //the time for each move if perMove
+    public final long incrementMillis;
+    public final boolean perMove;
+
+    public TimeControl(final long baseMillis, final long incrementMillis, final boolean perMove) {
+        checkArgument(baseMillis > 0 && incrementMillis >= 0, "Incorrect time control");
+        this.baseMillis = baseMillis;
+        this.incrementMillis = incrementMillis;
+        this.perMove = perMove;
+    }
+
+    public static Optional<TimeControl> tryParse(final String s) {
+        if (s == null || s.isEmpty())
+            return Optional.empty();
+        if (s.charAt(s.length() - 1) == 'd' || s.charAt(s.length() - 1) == 'D') {
+            final int days = parseNumber(s, 0, s.length() - 1);
+            if (days <= 0 || days > MAX_DAYS)
+                return Optional.empty();
+            return Optional.of(new TimeControl(TimeUnit.DAYS.toMillis(days), 0, true));
+        }
+        final int plus = s.indexOf('+');
+        if (plus < 0)
+            return Optional.empty();
+        final int minutes = parseNumber(s, 0, plus);
+        final int seconds = parseNumber(s, plus + 1, s.length());
+        if (minutes <= 0 || minutes > MAX_MINUTES || seconds < 0 || seconds > MAX_INCREMENT_SECONDS)
+            return Optional.empty();
+        return Optional.of(new TimeControl(TimeUnit.MINUTES.toMillis(minutes), TimeUnit.SECONDS.toMillis(seconds),
+                false));
+    }
+
+    @Override
+    public String toString() {
+        if (this.perMove)
+            return TimeUnit.MILLISECONDS.toDays(this.baseMillis) + "d";
+        return TimeUnit.MILLISECONDS.toMinutes(this.baseMillis) + "+"
+                + TimeUnit.MILLISECONDS.toSeconds(this.incrementMillis);
+    }
+
+    //-1 unless s[start, end) is a short decimal number
+    private static int parseNumber(final String s, final int start, final int end) {
+        if (start == end || end - start > 4)
+            return -1;
+        int value = 0;
+        for (int i = start; i < end; ++i) {
+            final char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
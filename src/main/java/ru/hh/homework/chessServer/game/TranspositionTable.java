@@ -0,0 +1,60 @@
+package ru.hh.homework.chessServer.game;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+//results of searched positions shared by all engine threads without locks: an entry is the key xor-ed with
+//its data and the data, a torn entry written by two threads at once doesn't match its key and is a miss.
+//data: move (17 bits) | depth (7) | bound (2) | 1 | score (16) << 32, so that 0 is never stored
+final class TranspositionTable {
+    static final int EXACT = 0;
+    static final int LOWER = 1; //the score is at least this
+    static final int UPPER = 2; //the score is at most this
+
+    private static final int MAX_DEPTH = 127;
+    private static final long STORED = 1L << 26;
+
+    private final long[] entries;
+    private final int mask;
+
+    TranspositionTable(final int bits) {
+        checkArgument(bits > 0 && bits < 30, "Incorrect table size");
+        this.entries = new long[2 << bits];
+        this.mask = (1 << bits) - 1;
+    }
+
+    //0 on a miss
+    long probe(final long key) {
+        final int index = index(key);
+        final long data = this.entries[index + 1];
+        return (this.entries[index] ^ data) == key ? data : 0;
+    }
+
+    //always replaces: the latest search knows the most about the current game
+    void store(final long key, final int move, final int depth, final int bound, final int score) {
+        final long data = move | (long) Math.min(depth, MAX_DEPTH) << Move.BITS | (long) bound << 24 | STORED
+                | (long) (score & 0xFFFF) << 32;
+        final int index = index(key);
+        this.entries[index] = key ^ data;
+        this.entries[index + 1] = data;
+    }
+
+    static int move(final long data) {
+        return (int) data & ((1 << Move.BITS) - 1);
+    }
+
+    static int depth(final long data) {
+        return (int) (data >>> Move.BITS) & MAX_DEPTH;
+    }
+
+    static int bound(final long data) {
+        return (int) (data >>> 24) & 3;
+    }
+
+    static int score(final long data) {
+        return (short) (data >>> 32);
+    }
+
+    private int index(final long key) {
+        return ((int) (key ^ key >>> 32) & this.mask) << 1;
+    }
+}
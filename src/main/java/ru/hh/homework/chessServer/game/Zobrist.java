@@ -0,0 +1,46 @@
+package ru.hh.homework.chessServer.game;
+
+import java.util.Random;
+
+//random keys for incremental position hashing, the seed is fixed so that keys are stable between runs
+final class Zobrist {
+    private static final long[][] PIECE_SQUARE = new long[12][64];
+    private static final long[] CASTLING = new long[16];
+    private static final long[] EN_PASSANT_FILE = new long[8];
+    private static final long BLACK_TO_MOVE;
+
+    static {
+        final Random random = new Random(0x5EED_C4E55L);
+        for (final long[] squares : PIECE_SQUARE) {
+            for (int square = 0; square < squares.length; ++square) {
+                squares[square] = random.nextLong();
+            }
+        }
+        for (int i = 0; i < CASTLING.length; ++i) {
+            CASTLING[i] = random.nextLong();
+        }
+        for (int i = 0; i < EN_PASSANT_FILE.length; ++i) {
+            EN_PASSANT_FILE[i] = random.nextLong();
+        }
+        BLACK_TO_MOVE = random.nextLong();
+    }
+
+    private Zobrist() {
+    }
+
+    public static long piece(final int index, final int square) {
+        return PIECE_SQUARE[index][square];
+    }
+
+    public static long castling(final int rights) {
+        return CASTLING[rights];
+    }
+
+    public static long enPassant(final int square) {
+        return EN_PASSANT_FILE[Bitboards.file(square)];
+    }
+
+    public static long blackToMove() {
+        return BLACK_TO_MOVE;
+    }
+}
@@ -0,0 +1,83 @@
+package ru.hh.homework.chessServer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.hh.homework.chessServer.game.Game;
+import ru.hh.homework.chessServer.game.Player;
+import ru.hh.homework.chessServer.game.Status;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class JournalTest {
+    private static final String WHITE = UUID.randomUUID().toString();
+    private static final String BLACK = UUID.randomUUID().toString();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    //a checkpoint taken after a move may still be followed by the record of that move
+    @Test
+    public void moveIncludedInCheckpointIsNotReplayedAgain() throws IOException {
+        final Path directory = this.folder.getRoot().toPath();
+        final Game game = newGame();
+        final Journal journal = new Journal(directory, new AtomicLong());
+        journal.compact(Collections.singletonList(Journal.snapshot(game)));
+
+        move(game, WHITE, "e2", "e4");
+        final Journal.Record move = Journal.move(game);
+        journal.compact(Collections.singletonList(Journal.snapshot(game)));
+        journal.append(move);
+        journal.commit();
+
+        assertRestored(directory, game);
+    }
+
+    @Test
+    public void movesAfterCompactionSurviveRestart() throws IOException {
+        final Path directory = this.folder.getRoot().toPath();
+        final Game game = newGame();
+        final Journal journal = new Journal(directory, new AtomicLong());
+        journal.compact(Collections.singletonList(Journal.snapshot(game)));
+        move(game, WHITE, "e2", "e4");
+        journal.append(Journal.move(game));
+        journal.commit();
+
+        journal.compact(Collections.singletonList(Journal.snapshot(game)));
+        move(game, BLACK, "e7", "e5");
+        journal.append(Journal.move(game));
+        move(game, WHITE, "g1", "f3");
+        journal.append(Journal.move(game));
+        journal.commit();
+
+        assertRestored(directory, game);
+    }
+
+    private static Game newGame() {
+        final Game game = new Game(UUID.randomUUID(), null);
+        game.addPlayer(new Player(game, WHITE, true));
+        game.addPlayer(new Player(game, BLACK, false));
+        return game;
+    }
+
+    private static void move(final Game game, final String token, final String from, final String to) {
+        assertNotEquals(Status.INCORRECT, game.move(token, from, to, null).status);
+    }
+
+    private static void assertRestored(final Path directory, final Game game) throws IOException {
+        final Journal.Recovered recovered = Journal.recover(directory).games.get(game.id);
+        assertNotNull(recovered);
+        final Game restored = recovered.load();
+        assertNotNull(restored);
+        assertEquals(game.fen(), restored.fen());
+        assertEquals(game.lastMove(), restored.lastMove());
+    }
+}
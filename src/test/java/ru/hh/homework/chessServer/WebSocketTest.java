@@ -0,0 +1,94 @@
+package ru.hh.homework.chessServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class WebSocketTest {
+    private static final String HANDSHAKE = "GET / HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\n"
+            + "Connection: Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n\r\n";
+
+    private SocketChannel channel;
+    private Connection connection;
+
+    @Before
+    public void open() throws IOException {
+        final Server server = new Server(0, 1, new Dispatcher(1));
+        this.channel = SocketChannel.open();
+        this.connection = new Connection(1, "test", this.channel, new Reactor(server));
+        read(HANDSHAKE.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @After
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    @Test
+    public void closeFrameEndsSession() {
+        assertClosed(read(frame(WebSocket.CLOSE, true, "")));
+    }
+
+    @Test
+    public void unmaskedFrameEndsSession() {
+        assertClosed(read(frame(WebSocket.TEXT, false, "EXIT")));
+    }
+
+    @Test
+    public void unknownOpcodeEndsSession() {
+        assertClosed(read(frame(3, true, "")));
+    }
+
+    @Test
+    public void unexpectedContinuationEndsSession() {
+        assertClosed(read(frame(0, true, "EXIT")));
+    }
+
+    @Test
+    public void commandsBeforeProtocolErrorAreKept() {
+        final byte[] command = frame(WebSocket.TEXT, true, "EXIT");
+        final byte[] malformed = frame(WebSocket.TEXT, false, "EXIT");
+        final byte[] input = new byte[command.length + malformed.length];
+        System.arraycopy(command, 0, input, 0, command.length);
+        System.arraycopy(malformed, 0, input, command.length, malformed.length);
+        final List<String> commands = read(input);
+        assertNotNull(commands);
+        assertEquals(2, commands.size());
+        assertEquals("EXIT", commands.get(0));
+        assertClosed(commands.subList(1, 2));
+    }
+
+    private List<String> read(final byte[] input) {
+        return this.connection.frame(ByteBuffer.wrap(input));
+    }
+
+    //the worker removes the session of a connection on CLOSE
+    private static void assertClosed(final List<String> commands) {
+        assertNotNull(commands);
+        assertEquals(Collections.singletonList(Settings.Command.CLOSE.name()), commands);
+    }
+
+    private static byte[] frame(final int opcode, final boolean masked, final String text) {
+        final byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        final byte[] mask = {1, 2, 3, 4};
+        final ByteBuffer frame = ByteBuffer.allocate(2 + (masked ? 4 : 0) + payload.length);
+        frame.put((byte) (0x80 | opcode));
+        frame.put((byte) ((masked ? 0x80 : 0) | payload.length));
+        if (masked)
+            frame.put(mask);
+        for (int i = 0; i < payload.length; ++i) {
+            frame.put((byte) (masked ? payload[i] ^ mask[i & 3] : payload[i]));
+        }
+        return frame.array();
+    }
+}